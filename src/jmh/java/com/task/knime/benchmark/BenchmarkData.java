@@ -0,0 +1,108 @@
+package com.task.knime.benchmark;
+
+import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.DtoLoader;
+import com.task.knime.cache.LocalInvalidationTransport;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.model.TagEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * generates notebooks for the benchmarks. notebook with id n and k notes has notes with ids (n - 1) * k + 1 to n * k.
+ * every note has few tags out of small fixed vocabulary, so tags are shared by many notes like in real notebooks
+ */
+final class BenchmarkData {
+
+    static final int TAGS_VOCABULARY = 50;
+    static final int TAGS_PER_NOTE = 3;
+
+    private BenchmarkData() {
+    }
+
+    static String tag(int index) {
+        return "tag" + index % TAGS_VOCABULARY;
+    }
+
+    static List<String> tags(int noteId) {
+        return IntStream.range(0, TAGS_PER_NOTE).mapToObj(i -> tag(noteId * 7 + i * 13)).collect(Collectors.toList());
+    }
+
+    static NotebookEntity notebookEntity(int id, int notes) {
+        NotebookEntity notebook = new NotebookEntity("notebook " + id);
+        notebook.setId(id);
+        Date now = new Date();
+        for (int noteId = firstNoteId(id, notes); noteId < firstNoteId(id + 1, notes); noteId++) {
+            NoteEntity note = new NoteEntity("note " + noteId, "body of the note " + noteId, notebook, now, now);
+            note.setId(noteId);
+            tags(noteId).forEach(tag -> note.addTag(new TagEntity(tag)));
+            notebook.addNote(note);
+        }
+        return notebook;
+    }
+
+    static int firstNoteId(int notebookId, int notes) {
+        return (notebookId - 1) * notes + 1;
+    }
+
+    static NoteDto noteDto(int notebookId, int noteId) {
+        Date now = new Date();
+        return NoteDto.builder().id(noteId).NotebookId(notebookId).title("note " + noteId)
+                .body("body of the note " + noteId).tags(tags(noteId)).createdTime(now).lastModified(now).build();
+    }
+
+    static NotebookDto notebookDto(int id, int notes) {
+        return NotebookDto.builder().id(id).name("notebook " + id)
+                .notes(IntStream.range(firstNoteId(id, notes), firstNoteId(id + 1, notes))
+                        .mapToObj(noteId -> noteDto(id, noteId)).collect(Collectors.toList()))
+                .build();
+    }
+
+    /**
+     * cache manager configured like in application properties but with the given sizes in megabytes,
+     * loading notes and notebooks from the given loader
+     */
+    static CacheManager cacheManager(int notebooksSizeMb, int notesSizeMb, DtoLoader dtoLoader) {
+        CacheManager cacheManager = new CacheManager();
+        ReflectionTestUtils.setField(cacheManager, "dtoLoader", dtoLoader);
+        ReflectionTestUtils.setField(cacheManager, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cacheManager, "invalidationTransport", new LocalInvalidationTransport());
+        ReflectionTestUtils.setField(cacheManager, "noteBookExpirationDuration", 5);
+        ReflectionTestUtils.setField(cacheManager, "noteExpirationDuration", 5);
+        ReflectionTestUtils.setField(cacheManager, "noteBookRefreshDuration", 1);
+        ReflectionTestUtils.setField(cacheManager, "noteRefreshDuration", 1);
+        ReflectionTestUtils.setField(cacheManager, "noteBookSizeMb", notebooksSizeMb);
+        ReflectionTestUtils.setField(cacheManager, "noteSizeMb", notesSizeMb);
+        ReflectionTestUtils.invokeMethod(cacheManager, "configureCaches");
+        return cacheManager;
+    }
+
+    /**
+     * loader of generated notes and notebooks, stands for the database on cache misses
+     */
+    static DtoLoader generatedDtoLoader(int notesPerNotebook) {
+        return new DtoLoader() {
+            @Override
+            public NoteDto loadNote(int id) {
+                return noteDto((id - 1) / notesPerNotebook + 1, id);
+            }
+
+            @Override
+            public NotebookDto loadNotebook(int id) {
+                return notebookDto(id, notesPerNotebook);
+            }
+
+            @Override
+            public Map<Integer, NotebookDto> loadNotebooks(Collection<Integer> ids) {
+                return ids.stream().collect(Collectors.toMap(id -> id, this::loadNotebook));
+            }
+        };
+    }
+}
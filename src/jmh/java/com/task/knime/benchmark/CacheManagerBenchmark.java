@@ -0,0 +1,71 @@
+package com.task.knime.benchmark;
+
+import com.task.knime.cache.CacheManager;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cache reads and writes under contention of concurrent threads. readers get notes and notebooks mostly hitting
+ * the cache, writers put new versions of notes which patches their cached notebook
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheManagerBenchmark {
+
+    static final int NOTEBOOKS = 100;
+    static final int NOTES_PER_NOTEBOOK = 100;
+
+    CacheManager cacheManager;
+
+    @Setup
+    public void setup() {
+        cacheManager = BenchmarkData.cacheManager(64, 16, BenchmarkData.generatedDtoLoader(NOTES_PER_NOTEBOOK));
+        for (int notebookId = 1; notebookId <= NOTEBOOKS; notebookId++) {
+            NotebookDto notebook = BenchmarkData.notebookDto(notebookId, NOTES_PER_NOTEBOOK);
+            cacheManager.addNoteBookDto(notebook);
+            notebook.getNotes().forEach(cacheManager::addNoteDto);
+        }
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(6)
+    public NoteDto getNote() {
+        return cacheManager.getNote(randomNoteId());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public NotebookDto getNotebook() {
+        return cacheManager.getNoteBook(ThreadLocalRandom.current().nextInt(1, NOTEBOOKS + 1));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void addNote() {
+        int noteId = randomNoteId();
+        NoteDto note = BenchmarkData.noteDto((noteId - 1) / NOTES_PER_NOTEBOOK + 1, noteId);
+        note.setVersion(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+        cacheManager.addNoteDto(note);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public NoteDto getNoteOnly() {
+        return cacheManager.getNote(randomNoteId());
+    }
+
+    private static int randomNoteId() {
+        return ThreadLocalRandom.current().nextInt(1, NOTEBOOKS * NOTES_PER_NOTEBOOK + 1);
+    }
+}
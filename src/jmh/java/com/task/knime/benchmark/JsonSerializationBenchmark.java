@@ -0,0 +1,39 @@
+package com.task.knime.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.knime.dto.NotebookDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * jackson serialization of notebook dto as done for the api responses
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int notes;
+
+    ObjectMapper objectMapper;
+
+    NotebookDto notebook;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        notebook = BenchmarkData.notebookDto(1, notes);
+    }
+
+    @Benchmark
+    public byte[] writeNotebook() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(notebook);
+    }
+}
@@ -0,0 +1,52 @@
+package com.task.knime.benchmark;
+
+import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.service.NoteFieldPatcher;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * partial note update, precompiled field patcher compared with reflective field lookup per patched field
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotePatchBenchmark {
+
+    Map<String, String> valuesByFields = Map.of("title", "patched title", "body", "patched body");
+
+    NoteEntity note;
+
+    @Setup
+    public void setup() {
+        note = new NoteEntity("title", "body", new NotebookEntity("notebook"), new Date(), new Date());
+    }
+
+    @Benchmark
+    public NoteEntity patcher() {
+        NoteFieldPatcher.patch(note, valuesByFields);
+        return note;
+    }
+
+    @Benchmark
+    public NoteEntity reflection() {
+        valuesByFields.forEach((key, value) -> {
+            Field field = ReflectionUtils.findField(NoteEntity.class, key);
+            if (field != null) {
+                field.setAccessible(true);
+                ReflectionUtils.setField(field, note, value);
+            }
+        });
+        note.setLastModified(new Date());
+        return note;
+    }
+}
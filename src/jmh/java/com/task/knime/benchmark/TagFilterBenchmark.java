@@ -0,0 +1,73 @@
+package com.task.knime.benchmark;
+
+import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.NotebookDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.service.NoteBookService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * filtering notes of a notebook by tags, notes ids are taken from the tags index and the notes from the cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagFilterBenchmark {
+
+    static final int NOTEBOOK_ID = 1;
+
+    @Param({"1000", "100000"})
+    int notes;
+
+    @Param({"ANY", "ALL"})
+    TagMatch match;
+
+    NoteBookService noteBookService;
+
+    List<String> tags;
+
+    @Setup
+    public void setup() {
+        NotebookDto notebook = BenchmarkData.notebookDto(NOTEBOOK_ID, notes);
+        CacheManager cacheManager = BenchmarkData.cacheManager(256, 256, BenchmarkData.generatedDtoLoader(notes));
+        cacheManager.addNoteBookDto(notebook);
+        notebook.getNotes().forEach(cacheManager::addNoteDto);
+
+        TagIndex tagIndex = new TagIndex();
+        ReflectionTestUtils.setField(tagIndex, "tagRepository", emptyTagRepository());
+        tagIndex.build();
+        notebook.getNotes().forEach(note -> tagIndex.addNoteTags(NOTEBOOK_ID, note.getId(), note.getTags()));
+
+        noteBookService = new NoteBookService();
+        ReflectionTestUtils.setField(noteBookService, "cacheManager", cacheManager);
+        ReflectionTestUtils.setField(noteBookService, "tagIndex", tagIndex);
+
+        // tags of the first note, so all of them match at least one note
+        tags = BenchmarkData.tags(1);
+    }
+
+    @Benchmark
+    public NotebookDto getNotebooksByTag() {
+        return noteBookService.getNotebooksByTag(NOTEBOOK_ID, tags, match);
+    }
+
+    private static TagRepository emptyTagRepository() {
+        return (TagRepository) Proxy.newProxyInstance(TagRepository.class.getClassLoader(), new Class<?>[]{TagRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("streamAllTagIndexEntries"))
+                        return Stream.empty();
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
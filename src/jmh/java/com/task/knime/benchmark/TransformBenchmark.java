@@ -0,0 +1,35 @@
+package com.task.knime.benchmark;
+
+import com.task.knime.dto.NotebookDto;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.service.ServiceUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * transformation of notebook entity with all its notes and tags to dto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int notes;
+
+    NotebookEntity notebook;
+
+    @Setup
+    public void setup() {
+        notebook = BenchmarkData.notebookEntity(1, notes);
+    }
+
+    @Benchmark
+    public NotebookDto transformNotebookEntityToDto() {
+        return ServiceUtils.transformNotebookEntityToDto(notebook);
+    }
+}
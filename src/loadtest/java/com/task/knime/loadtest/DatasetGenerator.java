@@ -0,0 +1,99 @@
+package com.task.knime.loadtest;
+
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NotebookRepository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * seeds notebooks with notes and tags through the repositories. same seed generates the same dataset,
+ * titles and bodies are made of small vocabulary so search queries have matches
+ */
+class DatasetGenerator {
+
+    static final List<String> WORDS = List.of("meeting", "project", "release", "design", "review", "budget", "travel",
+            "recipe", "garden", "workout", "reading", "music", "invoice", "family", "ideas", "backlog", "deploy",
+            "incident", "customer", "roadmap");
+
+    private static final int NOTES_PER_TRANSACTION = 1000;
+
+    private final NotebookRepository notebookRepository;
+    private final NoteRepository noteRepository;
+    private final TagDictionary tagDictionary;
+    private final TransactionTemplate transactionTemplate;
+    private final Random random;
+    private final int tagsVocabulary;
+
+    DatasetGenerator(NotebookRepository notebookRepository, NoteRepository noteRepository, TagDictionary tagDictionary,
+                     TransactionTemplate transactionTemplate, long seed, int tagsVocabulary) {
+        this.notebookRepository = notebookRepository;
+        this.noteRepository = noteRepository;
+        this.tagDictionary = tagDictionary;
+        this.transactionTemplate = transactionTemplate;
+        this.random = new Random(seed);
+        this.tagsVocabulary = tagsVocabulary;
+    }
+
+    static String tag(int index) {
+        return "tag" + index;
+    }
+
+    /**
+     * @param notebooks        number of notebooks
+     * @param notesPerNotebook number of notes in each notebook
+     * @param tagsPerNote      number of distinct tags of each note
+     * @return ids of the created notebooks and notes
+     */
+    Dataset generate(int notebooks, int notesPerNotebook, int tagsPerNote) {
+        List<Integer> notebookIds = new ArrayList<>(notebooks);
+        List<Integer> noteIds = new ArrayList<>(notebooks * notesPerNotebook);
+
+        for (int i = 0; i < notebooks; i++) {
+            NotebookEntity notebook = transactionTemplate.execute(status ->
+                    notebookRepository.save(new NotebookEntity("notebook " + notebookIds.size())));
+            notebookIds.add(notebook.getId());
+
+            for (int created = 0; created < notesPerNotebook; created += NOTES_PER_TRANSACTION) {
+                int batch = Math.min(NOTES_PER_TRANSACTION, notesPerNotebook - created);
+                List<NoteEntity> notes = IntStream.range(0, batch).mapToObj(n -> note(notebook, tagsPerNote))
+                        .collect(Collectors.toList());
+                transactionTemplate.executeWithoutResult(status -> noteRepository.saveAll(notes));
+                notes.forEach(note -> noteIds.add(note.getId()));
+            }
+        }
+        return new Dataset(notebookIds, noteIds, tagsVocabulary);
+    }
+
+    private NoteEntity note(NotebookEntity notebook, int tagsPerNote) {
+        Date now = new Date();
+        NoteEntity note = new NoteEntity(words(3), words(20), notebook, now, now);
+        Set<String> tags = new HashSet<>();
+        while (tags.size() < Math.min(tagsPerNote, tagsVocabulary))
+            tags.add(tag(random.nextInt(tagsVocabulary)));
+        note.addTags(tagDictionary.intern(tags).values());
+        return note;
+    }
+
+    private String words(int count) {
+        return IntStream.range(0, count).mapToObj(i -> WORDS.get(random.nextInt(WORDS.size())))
+                .collect(Collectors.joining(" "));
+    }
+
+    static class Dataset {
+        final List<Integer> notebookIds;
+        final List<Integer> noteIds;
+        final int tagsVocabulary;
+
+        Dataset(List<Integer> notebookIds, List<Integer> noteIds, int tagsVocabulary) {
+            this.notebookIds = notebookIds;
+            this.noteIds = noteIds;
+            this.tagsVocabulary = tagsVocabulary;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.task.knime.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * latencies of single operation, recorded by single thread and merged at the end of the run
+ */
+class LatencyStats {
+
+    private long[] latenciesNanos = new long[1024];
+    private int count;
+    private long errors;
+
+    void record(long latencyNanos, boolean error) {
+        if (count == latenciesNanos.length)
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+        latenciesNanos[count++] = latencyNanos;
+        if (error)
+            errors++;
+    }
+
+    void merge(LatencyStats other) {
+        for (int i = 0; i < other.count; i++)
+            record(other.latenciesNanos[i], false);
+        errors += other.errors;
+    }
+
+    /**
+     * @return count, errors, throughput per second and latency percentiles in milliseconds
+     */
+    Map<String, Object> summary(double durationSeconds) {
+        long[] sorted = Arrays.copyOf(latenciesNanos, count);
+        Arrays.sort(sorted);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("errors", errors);
+        summary.put("throughput", round(count / durationSeconds));
+        summary.put("p50", percentileMillis(sorted, 0.5));
+        summary.put("p90", percentileMillis(sorted, 0.9));
+        summary.put("p99", percentileMillis(sorted, 0.99));
+        summary.put("p999", percentileMillis(sorted, 0.999));
+        summary.put("max", sorted.length == 0 ? 0 : round(sorted[sorted.length - 1] / 1e6));
+        return summary;
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return round(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,134 @@
+package com.task.knime.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * runs mixed read and write workload against the rest api from concurrent threads, each thread sends next request
+ * as soon as previous one completes. requests during warmup are sent but not recorded
+ */
+class LoadDriver {
+
+    enum Operation {
+        GET_NOTEBOOK(35), GET_NOTE(25), GET_TAGGED_NOTES(15), SEARCH_NOTES(5), UPDATE_NOTE(15), CREATE_NOTE(5);
+
+        final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final String baseUrl;
+    private final DatasetGenerator.Dataset dataset;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    LoadDriver(String baseUrl, DatasetGenerator.Dataset dataset) {
+        this.baseUrl = baseUrl;
+        this.dataset = dataset;
+    }
+
+    /**
+     * @return latencies by operation
+     */
+    Map<Operation, LatencyStats> run(int threads, Duration warmup, Duration duration, long seed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        try {
+            List<Future<Map<Operation, LatencyStats>>> workers = IntStream.range(0, threads)
+                    .mapToObj(thread -> executor.submit(() -> work(new Random(seed + thread), measureFrom, end)))
+                    .collect(Collectors.toList());
+
+            Map<Operation, LatencyStats> merged = new EnumMap<>(Operation.class);
+            for (Future<Map<Operation, LatencyStats>> worker : workers)
+                worker.get().forEach((operation, stats) -> merged.computeIfAbsent(operation, o -> new LatencyStats()).merge(stats));
+            return merged;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<Operation, LatencyStats> work(Random random, long measureFrom, long end) {
+        Map<Operation, LatencyStats> stats = new EnumMap<>(Operation.class);
+        int totalWeight = Arrays.stream(Operation.values()).mapToInt(operation -> operation.weight).sum();
+
+        for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+            Operation operation = pick(random.nextInt(totalWeight));
+            HttpRequest request = request(operation, random);
+            boolean error;
+            long start = System.nanoTime();
+            try {
+                error = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 400;
+            } catch (Exception e) {
+                error = true;
+            }
+            long latency = System.nanoTime() - start;
+            if (start >= measureFrom)
+                stats.computeIfAbsent(operation, o -> new LatencyStats()).record(latency, error);
+        }
+        return stats;
+    }
+
+    private static Operation pick(int weighted) {
+        for (Operation operation : Operation.values()) {
+            if (weighted < operation.weight)
+                return operation;
+            weighted -= operation.weight;
+        }
+        throw new IllegalStateException();
+    }
+
+    private HttpRequest request(Operation operation, Random random) {
+        int notebookId = randomOf(dataset.notebookIds, random);
+        int noteId = randomOf(dataset.noteIds, random);
+        switch (operation) {
+            case GET_NOTEBOOK:
+                return get("/NoteBook?id=" + notebookId);
+            case GET_NOTE:
+                return get("/notebook/note?id=" + noteId);
+            case GET_TAGGED_NOTES:
+                return get("/noteBooks/tagged_notebook?noteBookId=" + notebookId + "&tag=" + randomTag(random)
+                        + "&tag=" + randomTag(random) + "&match=" + (random.nextBoolean() ? "ANY" : "ALL"));
+            case SEARCH_NOTES:
+                return get("/notebook/note/search?q=" + randomOf(DatasetGenerator.WORDS, random)
+                        + "&noteBookId=" + notebookId);
+            case UPDATE_NOTE:
+                return send("PUT", "/noteBook/Note?id=" + noteId, note(notebookId, random));
+            case CREATE_NOTE:
+                return send("POST", "/NoteBook/Note", note(notebookId, random));
+            default:
+                throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest send(String method, String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private String note(int notebookId, Random random) {
+        return "{\"notebookId\":" + notebookId + ",\"title\":\"" + randomOf(DatasetGenerator.WORDS, random)
+                + " note\",\"body\":\"" + randomOf(DatasetGenerator.WORDS, random) + " "
+                + randomOf(DatasetGenerator.WORDS, random) + "\",\"tags\":[\"" + randomTag(random) + "\"]}";
+    }
+
+    private String randomTag(Random random) {
+        return DatasetGenerator.tag(random.nextInt(dataset.tagsVocabulary));
+    }
+
+    private static <T> T randomOf(List<T> values, Random random) {
+        return values.get(random.nextInt(values.size()));
+    }
+}
@@ -0,0 +1,103 @@
+package com.task.knime.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.task.knime.KnimeApplication;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NotebookRepository;
+import com.task.knime.search.NoteSearchIndex;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * end to end load test. starts the application on random port with its in memory h2 database, seeds reproducible
+ * dataset and runs mixed workload against the rest api. throughput and latency percentiles are printed and written
+ * as json report. settings are given as system properties, e.g. -Dloadtest.threads=32, see defaults below.
+ * sql logging is turned off since it would dominate the measured latencies.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int notebooks = Integer.getInteger("loadtest.notebooks", 100);
+        int notesPerNotebook = Integer.getInteger("loadtest.notes", 200);
+        int tagsPerNote = Integer.getInteger("loadtest.tags", 3);
+        int tagsVocabulary = Integer.getInteger("loadtest.tags-vocabulary", 50);
+        int threads = Integer.getInteger("loadtest.threads", 16);
+        Duration warmup = Duration.ofSeconds(Integer.getInteger("loadtest.warmup", 10));
+        Duration duration = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 30));
+        long seed = Long.getLong("loadtest.seed", 42);
+        File report = new File(System.getProperty("loadtest.report", "target/loadtest-report.json"));
+
+        // passed as command line arguments so they override application properties, further arguments override them
+        String[] applicationArgs = Stream.concat(Stream.of("--server.port=0", "--spring.main.banner-mode=off",
+                "--logging.level.org.hibernate.SQL=INFO",
+                "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO"), Arrays.stream(args))
+                .toArray(String[]::new);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(KnimeApplication.class).run(applicationArgs);
+        try {
+            long seedingStart = System.nanoTime();
+            DatasetGenerator.Dataset dataset = new DatasetGenerator(context.getBean(NotebookRepository.class),
+                    context.getBean(NoteRepository.class), context.getBean(TagDictionary.class),
+                    new TransactionTemplate(context.getBean(PlatformTransactionManager.class)),
+                    seed, tagsVocabulary).generate(notebooks, notesPerNotebook, tagsPerNote);
+            context.getBean(TagIndex.class).build();
+            context.getBean(NoteSearchIndex.class).build();
+            System.out.printf("seeded %d notebooks and %d notes in %d ms%n", dataset.notebookIds.size(),
+                    dataset.noteIds.size(), Duration.ofNanos(System.nanoTime() - seedingStart).toMillis());
+
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            Map<LoadDriver.Operation, LatencyStats> stats = new LoadDriver(baseUrl, dataset)
+                    .run(threads, warmup, duration, seed);
+
+            Map<String, Object> results = new LinkedHashMap<>();
+            LatencyStats total = new LatencyStats();
+            stats.forEach((operation, operationStats) -> {
+                results.put(operation.name(), operationStats.summary(duration.toSeconds()));
+                total.merge(operationStats);
+            });
+            results.put("TOTAL", total.summary(duration.toSeconds()));
+
+            Map<String, Object> settings = new LinkedHashMap<>();
+            settings.put("notebooks", notebooks);
+            settings.put("notesPerNotebook", notesPerNotebook);
+            settings.put("tagsPerNote", tagsPerNote);
+            settings.put("tagsVocabulary", tagsVocabulary);
+            settings.put("threads", threads);
+            settings.put("warmupSeconds", warmup.toSeconds());
+            settings.put("durationSeconds", duration.toSeconds());
+            settings.put("seed", seed);
+
+            print(results);
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("settings", settings);
+            json.put("results", results);
+            report.getParentFile().mkdirs();
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, json);
+            System.out.println("report written to " + report.getAbsolutePath());
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void print(Map<String, Object> results) {
+        System.out.printf("%-18s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        results.forEach((operation, summary) -> {
+            Map<?, ?> values = (Map<?, ?>) summary;
+            System.out.printf("%-18s %9s %7s %10s %9s %9s %9s %9s %9s%n", operation, values.get("count"),
+                    values.get("errors"), values.get("throughput"), values.get("p50"), values.get("p90"),
+                    values.get("p99"), values.get("p999"), values.get("max"));
+        });
+    }
+}
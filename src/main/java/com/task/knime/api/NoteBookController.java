@@ -1,7 +1,17 @@
 package com.task.knime.api;
 
+import com.task.knime.cache.ResourceVersion;
+import com.task.knime.dto.ChangeEventDto;
+import com.task.knime.dto.ChangesDto;
+import com.task.knime.dto.ImportSummaryDto;
 import com.task.knime.dto.NotebookDto;
+import com.task.knime.dto.NotebookPageDto;
+import com.task.knime.dto.StatsDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.events.EventSink;
 import com.task.knime.service.NoteBookService;
+import com.task.knime.service.NotebookTransferService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -9,19 +19,41 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @Tag(name = "Notebook api", description = "The notebook API for adding, retrieving and deleting and notebooks")
 public class NoteBookController {
 
+    private static final String RESYNC_EVENT = "resync";
+
     @Autowired
     NoteBookService noteBookService;
 
+    @Autowired
+    NotebookTransferService notebookTransferService;
+
+    @Autowired
+    ChangeEventBus changeEventBus;
+
+    @Value("${events.sse.timeout}")
+    Duration eventsTimeout;
 
     @Operation(summary = "creates new notebook", tags = {"Notebook api"})
     @ApiResponses(value = {
@@ -42,11 +74,18 @@ public class NoteBookController {
                             schema = @Schema(implementation = NotebookDto.class))}),
             @ApiResponse(responseCode = "500", description = "internal server error",
                     content = @Content),
+            @ApiResponse(responseCode = "304", description = "notebook not modified since If-None-Match etag",
+                    content = @Content),
             @ApiResponse(responseCode = "404", description = "notebook for not found",
                     content = @Content)})
     @GetMapping(value = "/NoteBook", produces = "application/json")
-    public ResponseEntity<NotebookDto> getNoteBook(@RequestParam String id) {
-        return ResponseEntity.ok(noteBookService.getNotebook(Integer.parseInt(id)));
+    public ResponseEntity<NotebookDto> getNoteBook(@RequestParam String id, WebRequest request) {
+        int notebookId = Integer.parseInt(id);
+        // version is read before the notebook, so returned notebook is never older than its etag
+        ResourceVersion version = noteBookService.getNotebookVersion(notebookId);
+        if (request.checkNotModified(version.getETag()))
+            return null;
+        return ResponseEntity.ok(noteBookService.getNotebook(notebookId));
     }
 
     @Operation(summary = "Get notebook by notebook ids with all related notes", tags = {"Notebook api"})
@@ -61,7 +100,8 @@ public class NoteBookController {
         return ResponseEntity.ok(noteBookService.getNotebooks((ids)));
     }
 
-    @Operation(summary = "Get notebook by notebook id with related notes filtered by tag", tags = {"Notebook api"})
+    @Operation(summary = "Get notebook by notebook id with related notes filtered by tags, " +
+            "notes should have any of the tags or all of them according to match", tags = {"Notebook api"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Retrieved notebook by id",
                     content = {@Content(mediaType = "application/json",
@@ -69,10 +109,13 @@ public class NoteBookController {
             @ApiResponse(responseCode = "500", description = "internal server error",
                     content = @Content),
             @ApiResponse(responseCode = "404", description = "notebook for not found",
+                    content = @Content),
+            @ApiResponse(responseCode = "400", description = "no tags provided",
                     content = @Content)})
     @GetMapping(value = "/noteBooks/tagged_notebook", produces = "application/json")
-    public ResponseEntity<NotebookDto> getNoteBookByTag(@RequestParam int noteBookId, String tag) {
-        return ResponseEntity.ok(noteBookService.getNotebooksByTag(noteBookId, tag));
+    public ResponseEntity<NotebookDto> getNoteBookByTag(@RequestParam int noteBookId, @RequestParam List<String> tag,
+                                                        @RequestParam(defaultValue = "ANY") TagMatch match) {
+        return ResponseEntity.ok(noteBookService.getNotebooksByTag(noteBookId, tag, match));
     }
 
 
@@ -88,16 +131,130 @@ public class NoteBookController {
         return ResponseEntity.ok(noteBookService.deleteNoteBookById(Integer.parseInt(noteBookId)));
     }
 
-    @Operation(summary = "Get all notebooks with all notes", tags = {"Notebook api"})
+    @Operation(summary = "Get page of notebooks with number of notes in each one, notes are included only on demand",
+            tags = {"Notebook api"})
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "201", description = "Retrieved notebooks",
+            @ApiResponse(responseCode = "200", description = "Retrieved page of notebooks",
                     content = {@Content(mediaType = "application/json",
-                            schema = @Schema(implementation = NotebookDto.class))}),
+                            schema = @Schema(implementation = NotebookPageDto.class))}),
             @ApiResponse(responseCode = "500", description = "internal server error",
                     content = @Content)})
     @GetMapping(value = "/noteBooks/all", produces = "application/json")
-    public ResponseEntity<List<NotebookDto>> getAllNoteBooks() {
-        return ResponseEntity.ok(noteBookService.getNotebooks());
+    public ResponseEntity<NotebookPageDto> getAllNoteBooks(@RequestParam(defaultValue = "0") int afterId,
+                                                           @RequestParam(required = false) Integer size,
+                                                           @RequestParam(defaultValue = "false") boolean includeNotes) {
+        return ResponseEntity.ok(noteBookService.getNotebooks(afterId, size, includeNotes));
+
+    }
+
+    @Operation(summary = "Get number of notes and the tags having the most notes of notebook, " +
+            "or of all notebooks if no notebook id provided", tags = {"Notebook api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Retrieved notes statistics",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = StatsDto.class))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "notebook for not found",
+                    content = @Content)})
+    @GetMapping(value = "/noteBooks/stats", produces = "application/json")
+    public ResponseEntity<StatsDto> getStats(@RequestParam(required = false) Integer noteBookId,
+                                             @RequestParam(defaultValue = "10") int top) {
+        return ResponseEntity.ok(noteBookService.getStats(noteBookId, top));
+    }
 
+    @Operation(summary = "Get notes created, modified or deleted after since token, pass nextSince of the response " +
+            "as since of the next request. first request passes epoch millis", tags = {"Notebook api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Retrieved notes changes",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ChangesDto.class))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content),
+            @ApiResponse(responseCode = "400", description = "invalid since token",
+                    content = @Content),
+            @ApiResponse(responseCode = "410", description = "since token older than the changes retention, " +
+                    "sync again from since=0", content = @Content)})
+    @GetMapping(value = "/noteBooks/changes", produces = "application/json")
+    public ResponseEntity<ChangesDto> getChanges(@RequestParam String since,
+                                                 @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(noteBookService.getChanges(since, size));
+    }
+
+    @Operation(summary = "Stream of note and notebook changes as server sent events, event id is sent as " +
+            "Last-Event-ID header on reconnect to resume after it. event named resync is sent and stream is closed " +
+            "when the events after Last-Event-ID are no longer kept or subscriber fell behind, subscriber should " +
+            "then reload the notebooks", tags = {"Notebook api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streamed changes",
+                    content = {@Content(mediaType = "text/event-stream",
+                            schema = @Schema(implementation = ChangeEventDto.class))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content)})
+    @GetMapping(value = "/noteBooks/events", produces = "text/event-stream")
+    public SseEmitter getEvents(@RequestParam(required = false) Integer noteBookId,
+                                @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(eventsTimeout.toMillis());
+        ChangeEventBus.Subscription subscription = changeEventBus.subscribe(noteBookId, lastEventId, new EventSink() {
+            @Override
+            public void send(ChangeEventDto event) throws IOException {
+                emitter.send(SseEmitter.event().id(String.valueOf(event.getId())).name(event.getType().name())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void resync() throws IOException {
+                emitter.send(SseEmitter.event().name(RESYNC_EVENT).data(RESYNC_EVENT));
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    @Operation(summary = "Export all notebooks with their notes as newline delimited json, notebook per line. " +
+            "response is streamed and gzip compressed when client accepts gzip encoding", tags = {"Notebook api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streamed all notebooks",
+                    content = {@Content(mediaType = "application/x-ndjson",
+                            schema = @Schema(implementation = NotebookDto.class))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content)})
+    @GetMapping(value = "/noteBooks/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportNoteBooks(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!gzip)
+            return response.body(notebookTransferService::exportNotebooks);
+
+        return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(outputStream -> {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+            notebookTransferService.exportNotebooks(gzipOutputStream);
+            gzipOutputStream.finish();
+        });
+    }
+
+    @Operation(summary = "Import notebooks with their notes and tags from newline delimited json, notebook per line " +
+            "as written by export. request body may be gzip compressed with gzip content encoding", tags = {"Notebook api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Imported notebooks",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ImportSummaryDto.class))}),
+            @ApiResponse(responseCode = "400", description = "malformed notebooks json",
+                    content = @Content),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content)})
+    @PostMapping(value = "/noteBooks/import", consumes = "application/x-ndjson", produces = "application/json")
+    public ResponseEntity<ImportSummaryDto> importNoteBooks(
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+            HttpServletRequest request) throws IOException {
+        InputStream inputStream = request.getInputStream();
+        if ("gzip".equalsIgnoreCase(contentEncoding))
+            inputStream = new GZIPInputStream(inputStream);
+        return new ResponseEntity<>(notebookTransferService.importNotebooks(inputStream), HttpStatus.CREATED);
     }
 }
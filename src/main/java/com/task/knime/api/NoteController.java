@@ -1,9 +1,12 @@
 package com.task.knime.api;
 
+import com.task.knime.cache.ResourceVersion;
 import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NoteSearchHitDto;
 import com.task.knime.dto.NotebookDto;
 import com.task.knime.service.NoteService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -14,11 +17,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.validation.Valid;
+import java.util.List;
 import java.util.Map;
 
 @RestController
+@Validated
 @Tag(name = "Note api", description = "The note API for adding, retrieving and deleting and notes for particular Notebook")
 public class NoteController {
 
@@ -37,6 +43,22 @@ public class NoteController {
         return new ResponseEntity<>(noteService.createNote(noteDto), HttpStatus.CREATED);
     }
 
+    @Operation(summary = "creates notes in bulk, in single transaction", tags = {"Note api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "created notes",
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = NoteDto.class)))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content),
+            @ApiResponse(responseCode = "400", description = "for invalid notes or too many notes",
+                    content = @Content),
+            @ApiResponse(responseCode = "404", description = "notebook not found",
+                    content = @Content)})
+    @PostMapping(value = "/NoteBook/Notes", produces = "application/json")
+    public ResponseEntity<List<NoteDto>> createNotes(@RequestBody List<@Valid NoteDto> noteDtos) {
+        return new ResponseEntity<>(noteService.createNotes(noteDtos), HttpStatus.CREATED);
+    }
+
     @Operation(summary = "Delete note by id", tags = {"Note api"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "deleted note by id",
@@ -56,11 +78,17 @@ public class NoteController {
                             schema = @Schema(implementation = NotebookDto.class))}),
             @ApiResponse(responseCode = "500", description = "internal server error",
                     content = @Content),
+            @ApiResponse(responseCode = "304", description = "note not modified since If-None-Match etag",
+                    content = @Content),
             @ApiResponse(responseCode = "404", description = "note for not found",
                     content = @Content)})
     @GetMapping(value = "/notebook/note", produces = "application/json")
-    public ResponseEntity<NoteDto> getNoteBook(@RequestParam String id) {
-        return ResponseEntity.ok(noteService.getNote(Integer.parseInt(id)));
+    public ResponseEntity<NoteDto> getNoteBook(@RequestParam String id, WebRequest request) {
+        NoteDto noteDto = noteService.getNote(Integer.parseInt(id));
+        ResourceVersion version = ResourceVersion.of(noteDto);
+        if (request.checkNotModified(version.getETag()))
+            return null;
+        return ResponseEntity.ok(noteDto);
     }
 
     @Operation(summary = "updates all fields of the note", tags = {"Note api"})
@@ -75,7 +103,8 @@ public class NoteController {
         return ResponseEntity.ok(noteService.updateNote(id, noteDto));
     }
 
-    @Operation(summary = "partial update of the note,upate of the tags are not supported in this api. look for tag api", tags = {"Note api"})
+    @Operation(summary = "partial update of the note,upate of the tags are not supported in this api. look for tag api. " +
+            "patchable fields are title, body, createdAt and lastModified, dates as epoch millis or iso date time", tags = {"Note api"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "create new notebook",
                     content = {@Content(mediaType = "application/json",
@@ -91,4 +120,22 @@ public class NoteController {
         return ResponseEntity.ok(noteService.updateNotePartial(id, noteFields));
     }
 
+    @Operation(summary = "full text search over notes title and body, optionally filtered by notebook and tags",
+            tags = {"Note api"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "notes matching the query ordered by relevance",
+                    content = {@Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = NoteSearchHitDto.class)))}),
+            @ApiResponse(responseCode = "500", description = "internal server error",
+                    content = @Content),
+            @ApiResponse(responseCode = "400", description = "for empty query",
+                    content = @Content)})
+    @GetMapping(value = "/notebook/note/search", produces = "application/json")
+    public ResponseEntity<List<NoteSearchHitDto>> searchNotes(@RequestParam String q,
+                                                              @RequestParam(required = false) Integer noteBookId,
+                                                              @RequestParam(required = false) List<String> tag,
+                                                              @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(noteService.searchNotes(q, noteBookId, tag, limit));
+    }
+
 }
@@ -0,0 +1,21 @@
+package com.task.knime.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * change of note or notebook committed by one instance, which the other instances remove from their caches
+ */
+@Getter
+@AllArgsConstructor
+public class CacheInvalidation {
+
+    private final int notebookId;
+
+    /**
+     * null for the notebook itself
+     */
+    private final Integer noteId;
+
+    private final boolean deleted;
+}
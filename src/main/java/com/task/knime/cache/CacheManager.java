@@ -1,20 +1,50 @@
 package com.task.knime.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.task.knime.dto.NoteDto;
 import com.task.knime.dto.NotebookDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
- * cache layer manager,using Caffeine thread safe cache for library for caching notes and notebooks.
- * expire eviction and maximum size configured via properties file.
- * uses uses the Window TinyLfu eviction policy
+ * cache layer manager,using Caffeine thread safe loading cache for library for caching notes and notebooks.
+ * expire eviction, refresh and maximum size configured via properties file. maximum size is in megabytes of
+ * estimated heap size of the cached dtos, so notebook with many notes takes as much of the cache as its notes,
+ * current estimated size is published as cache.size.bytes.
+ * uses uses the Window TinyLfu eviction policy.
+ * hits, misses, evictions and load times of the caches are published as cache metrics named notebooks and notes.
+ * concurrent misses of the same key wait for single load from {@link DtoLoader}, entries read after the refresh
+ * interval are reloaded in the background while the current value is still served.
+ * cached notebook keeps its notes by id, so single note change patches the cached notebook
+ * instead of rebuilding it from all of its notes.
+ * <p>
+ * changes done inside transaction are applied to the caches only after commit. notes are cached with compare
+ * and set on their version, so older version never replaces newer one, and deleted notes are remembered so
+ * reader that loaded note before its deletion does not cache it again. changes of an entry are applied with compute
+ * which waits for the in flight load of the entry, unlike computeIfPresent, so loaded entry is patched by changes
+ * committed while it was loading. notebooks loaded in bulk are not coalesced with single loads, each of them is
+ * cached only if none of its notes was changed since the bulk load started.
+ * <p>
+ * committed changes are broadcast through {@link InvalidationTransport} to the other instances of the service, which
+ * remove the changed notes and their notebooks from their caches, so they are loaded again on next read.
+ * <p>
+ * notebooks evicted for size are moved to {@link OffHeapNotebookCache} if cache.notebook.offheap.size-mb is set, and
+ * are moved back on next read. they are moved, loaded and removed on change under the lock of the notebook entry,
+ * so the off heap copy is never older than the changes applied to the cache.
  */
 @Component
 public class CacheManager {
@@ -25,61 +55,391 @@ public class CacheManager {
     @Value("${cache.note.duration}")
     int noteExpirationDuration;
 
-    @Value("${cache.notebook.size}")
-    int noteBookSizeCache;
+    @Value("${cache.notebook.refresh}")
+    int noteBookRefreshDuration;
 
-    @Value("${cache.note.size}")
-    int noteSizeCache;
+    @Value("${cache.note.refresh}")
+    int noteRefreshDuration;
 
+    @Value("${cache.notebook.size-mb}")
+    int noteBookSizeMb;
 
-    Cache<Integer, NotebookDto> noteBookCache;
+    @Value("${cache.note.size-mb}")
+    int noteSizeMb;
 
-    Cache<Integer, NoteDto> noteCache;
+    @Value("${cache.notebook.offheap.size-mb}")
+    int noteBookOffHeapSizeMb;
+
+    @Autowired
+    DtoLoader dtoLoader;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    InvalidationTransport invalidationTransport;
+
+    LoadingCache<Integer, CachedNotebook> noteBookCache;
+
+    /**
+     * null if notebooks are not cached off heap
+     */
+    OffHeapNotebookCache noteBookOffHeapCache;
+
+    LoadingCache<Integer, NoteDto> noteCache;
+
+    Cache<Integer, Boolean> deletedNotes;
+
+    Cache<Integer, Long> noteBookWriteStamps;
+
+    private final AtomicLong stamps = new AtomicLong();
 
     @PostConstruct
     private void configureCaches() {
-        noteBookCache = Caffeine.newBuilder()
+        Caffeine<Integer, CachedNotebook> noteBookCacheBuilder = Caffeine.newBuilder()
                 .expireAfterWrite(noteBookExpirationDuration, TimeUnit.MINUTES)
-                .maximumSize(noteBookSizeCache)
-                .build();
-        noteCache = Caffeine.newBuilder()
+                .maximumWeight((long) noteBookSizeMb << 20)
+                .weigher((Integer id, CachedNotebook cachedNotebook) ->
+                        DtoWeigher.ENTRY_BYTES + cachedNotebook.getEstimatedBytes())
+                .recordStats()
+                .evictionListener(this::onNoteBookEvicted);
+        if (noteBookOffHeapSizeMb > 0)
+            noteBookOffHeapCache = new OffHeapNotebookCache((long) noteBookOffHeapSizeMb << 20,
+                    noteBookExpirationDuration, meterRegistry);
+        if (noteBookRefreshDuration > 0)
+            noteBookCacheBuilder.refreshAfterWrite(noteBookRefreshDuration, TimeUnit.MINUTES);
+        noteBookCache = noteBookCacheBuilder.build(new NotebookLoader());
+
+        Caffeine<Integer, NoteDto> noteCacheBuilder = Caffeine.newBuilder()
+                .expireAfterWrite(noteExpirationDuration, TimeUnit.MINUTES)
+                .maximumWeight((long) noteSizeMb << 20)
+                .weigher((Integer id, NoteDto noteDto) -> DtoWeigher.ENTRY_BYTES + DtoWeigher.noteBytes(noteDto))
+                .recordStats();
+        if (noteRefreshDuration > 0)
+            noteCacheBuilder.refreshAfterWrite(noteRefreshDuration, TimeUnit.MINUTES);
+        noteCache = noteCacheBuilder.build(new NoteLoader());
+
+        deletedNotes = Caffeine.newBuilder()
                 .expireAfterWrite(noteExpirationDuration, TimeUnit.MINUTES)
-                .maximumSize(noteSizeCache)
                 .build();
+        noteBookWriteStamps = Caffeine.newBuilder()
+                .expireAfterWrite(noteBookExpirationDuration, TimeUnit.MINUTES)
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, noteBookCache, "notebooks");
+        CaffeineCacheMetrics.monitor(meterRegistry, noteCache, "notes");
+        Gauge.builder("cache.size.bytes", noteBookCache, CacheManager::weightedSize).tag("cache", "notebooks")
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("cache.size.bytes", noteCache, CacheManager::weightedSize).tag("cache", "notes")
+                .baseUnit("bytes").register(meterRegistry);
+
+        invalidationTransport.subscribe(this::invalidate);
+    }
+
+    /**
+     * @return cached notebook, loaded if not cached. null if there is no such notebook
+     */
+    public NotebookDto getNoteBook(int id) {
+        CachedNotebook cachedNotebook = noteBookCache.get(id);
+        return cachedNotebook == null ? null : cachedNotebook.toDto();
+    }
+
+    /**
+     * @return version of cached notebook without copying its notes, loaded if not cached. null if there is no such
+     * notebook
+     */
+    public ResourceVersion getNoteBookVersion(int id) {
+        CachedNotebook cachedNotebook = noteBookCache.get(id);
+        return cachedNotebook == null ? null : cachedNotebook.getVersion();
+    }
+
+    /**
+     * cached notebooks are taken from cache and all the missing ones are loaded together and cached
+     *
+     * @param ids of the notebooks
+     * @return notebooks in order of the ids, missing notebooks are skipped
+     */
+    public List<NotebookDto> getNoteBooks(Collection<Integer> ids) {
+        Map<Integer, CachedNotebook> cachedNotebooks = new HashMap<>(noteBookCache.getAllPresent(ids));
+        if (noteBookOffHeapCache != null) {
+            ids.stream().filter(id -> !cachedNotebooks.containsKey(id)).distinct().forEach(id -> {
+                CachedNotebook promoted = noteBookCache.asMap().computeIfAbsent(id, this::takeFromOffHeap);
+                if (promoted != null)
+                    cachedNotebooks.put(id, promoted);
+            });
+        }
+        List<Integer> missingIds = ids.stream().filter(id -> !cachedNotebooks.containsKey(id))
+                .distinct().collect(Collectors.toList());
+
+        Map<Integer, NotebookDto> loadedNotebooks = Collections.emptyMap();
+        if (!missingIds.isEmpty()) {
+            long readStamp = stamps.get();
+            loadedNotebooks = dtoLoader.loadNotebooks(missingIds);
+            loadedNotebooks.values().forEach(notebookDto -> addLoadedNoteBook(notebookDto, readStamp));
+        }
+
+        List<NotebookDto> notebooks = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            CachedNotebook cachedNotebook = cachedNotebooks.get(id);
+            NotebookDto notebookDto = cachedNotebook != null ? cachedNotebook.toDto() : loadedNotebooks.get(id);
+            if (notebookDto != null)
+                notebooks.add(notebookDto);
+        }
+        return notebooks;
+    }
+
+    /**
+     * @return cached note, loaded if not cached. null if there is no such note
+     */
+    public NoteDto getNote(int id) {
+        return noteCache.get(id);
     }
 
     public NotebookDto getNoteBookFromCache(int id) {
-        return noteBookCache.getIfPresent(id);
+        CachedNotebook cachedNotebook = noteBookCache.getIfPresent(id);
+        return cachedNotebook == null ? null : cachedNotebook.toDto();
+    }
+
+    /**
+     * @return name of the cached notebook without copying its notes, null if notebook is not cached
+     */
+    public String getNoteBookNameFromCache(int id) {
+        CachedNotebook cachedNotebook = noteBookCache.getIfPresent(id);
+        return cachedNotebook == null ? null : cachedNotebook.getName();
     }
 
     public NoteDto getNoteFromCache(int id) {
         return noteCache.getIfPresent(id);
     }
 
+    /**
+     * caches notebook created by the current transaction
+     */
     public void addNoteBookDto(NotebookDto notebookDto) {
-        noteBookCache.put(notebookDto.getId(), notebookDto);
+        AfterCommit.run(() -> noteBookCache.put(notebookDto.getId(), new CachedNotebook(notebookDto)));
     }
 
+    /**
+     * caches the note written by the current transaction and patches its notebook if the notebook is cached, the
+     * change is broadcast to the other instances. note is not cached if newer version of it is already cached or if
+     * it was deleted.
+     */
     public void addNoteDto(NoteDto noteDto) {
-        noteCache.put(noteDto.getId(), noteDto);
+        AfterCommit.run(() -> {
+            invalidationTransport.broadcast(new CacheInvalidation(noteDto.getNotebookId(), noteDto.getId(), false));
+            if (deletedNotes.getIfPresent(noteDto.getId()) != null)
+                return;
+            noteCache.asMap().merge(noteDto.getId(), noteDto, CacheManager::newerVersion);
+            markNoteBookChanged(noteDto.getNotebookId());
+            noteBookCache.asMap().compute(noteDto.getNotebookId(), (id, cachedNotebook) -> {
+                removeFromOffHeap(id);
+                if (cachedNotebook != null && deletedNotes.getIfPresent(noteDto.getId()) == null)
+                    cachedNotebook.putNote(noteDto);
+                return cachedNotebook;
+            });
+        });
+    }
+
+    /**
+     * caches the notes of the notebook written by the current transaction and patches the notebook once if it is
+     * cached, single notebook change is broadcast to the other instances instead of change of every note.
+     * notes are not cached if newer versions of them are already cached or if they were deleted.
+     */
+    public void addNoteDtos(int notebookId, Collection<NoteDto> noteDtos) {
+        AfterCommit.run(() -> {
+            invalidationTransport.broadcast(new CacheInvalidation(notebookId, null, false));
+            noteDtos.stream().filter(noteDto -> deletedNotes.getIfPresent(noteDto.getId()) == null)
+                    .forEach(noteDto -> noteCache.asMap().merge(noteDto.getId(), noteDto, CacheManager::newerVersion));
+            markNoteBookChanged(notebookId);
+            noteBookCache.asMap().compute(notebookId, (id, cachedNotebook) -> {
+                removeFromOffHeap(id);
+                if (cachedNotebook != null)
+                    noteDtos.stream().filter(noteDto -> deletedNotes.getIfPresent(noteDto.getId()) == null)
+                            .forEach(cachedNotebook::putNote);
+                return cachedNotebook;
+            });
+        });
     }
 
-    public void removeNoteBookFromCache(int id) {
-        if (noteBookCache.getIfPresent(id) != null) {
-            Objects.requireNonNull(noteBookCache.getIfPresent(id)).getNotes().forEach(note -> {
-                        if (noteCache.getIfPresent(note.getId()) != null)
-                            noteCache.invalidate(note.getId());
-                    }
-            );
-            noteBookCache.invalidate(id);
+    /**
+     * caches note loaded from the database by a read, without changing its cached notebook or the caches of the
+     * other instances. note is not cached if newer version of it is already cached or if it was deleted.
+     */
+    public void cacheLoadedNote(NoteDto noteDto) {
+        if (deletedNotes.getIfPresent(noteDto.getId()) == null)
+            noteCache.asMap().merge(noteDto.getId(), noteDto, CacheManager::newerVersion);
+    }
+
+    /**
+     * removes the notebook and its notes from cache, immediately and once again after commit
+     *
+     * @param id      of the notebook
+     * @param noteIds ids of all notes of the notebook
+     */
+    public void removeNoteBookFromCache(int id, Collection<Integer> noteIds) {
+        removeNoteBook(id, noteIds);
+        AfterCommit.run(() -> {
+            noteIds.forEach(noteId -> deletedNotes.put(noteId, true));
+            removeNoteBook(id, noteIds);
+            invalidationTransport.broadcast(new CacheInvalidation(id, null, true));
+            noteIds.forEach(noteId -> invalidationTransport.broadcast(new CacheInvalidation(id, noteId, true)));
+        });
+    }
+
+    /**
+     * removes the note from cache and from its cached notebook, immediately and once again after commit
+     */
+    public void removeNoteFromCache(int notebookId, int noteId) {
+        removeNote(notebookId, noteId);
+        AfterCommit.run(() -> {
+            deletedNotes.put(noteId, true);
+            removeNote(notebookId, noteId);
+            invalidationTransport.broadcast(new CacheInvalidation(notebookId, noteId, true));
+        });
+    }
+
+    /**
+     * applies change committed by another instance. changed note and its notebook are removed from cache to be
+     * loaded again, deleted note is also remembered so reader that loaded it before deletion does not cache it again
+     */
+    void invalidate(CacheInvalidation invalidation) {
+        int notebookId = invalidation.getNotebookId();
+        if (invalidation.getNoteId() == null) {
+            removeNoteBook(notebookId, Collections.emptyList());
+            return;
+        }
+        int noteId = invalidation.getNoteId();
+        if (invalidation.isDeleted()) {
+            deletedNotes.put(noteId, true);
+            removeNote(notebookId, noteId);
+            return;
         }
+        markNoteBookChanged(notebookId);
+        noteCache.invalidate(noteId);
+        removeNoteBookEntry(notebookId);
+    }
+
+    private void removeNoteBook(int id, Collection<Integer> noteIds) {
+        markNoteBookChanged(id);
+        CachedNotebook cachedNotebook = removeNoteBookEntry(id);
+        if (cachedNotebook != null)
+            noteCache.invalidateAll(cachedNotebook.getNoteIds());
+        noteCache.invalidateAll(noteIds);
+    }
+
+    private void removeNote(int notebookId, int noteId) {
+        markNoteBookChanged(notebookId);
+        noteCache.invalidate(noteId);
+        noteBookCache.asMap().compute(notebookId, (id, cachedNotebook) -> {
+            removeFromOffHeap(id);
+            if (cachedNotebook != null)
+                cachedNotebook.removeNote(noteId);
+            return cachedNotebook;
+        });
+    }
+
+    /**
+     * removes the notebook from both cache levels
+     *
+     * @return removed notebook, null if it was not in the first level
+     */
+    private CachedNotebook removeNoteBookEntry(int id) {
+        CachedNotebook[] removed = new CachedNotebook[1];
+        noteBookCache.asMap().compute(id, (key, cachedNotebook) -> {
+            removeFromOffHeap(key);
+            removed[0] = cachedNotebook;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void onNoteBookEvicted(Integer id, CachedNotebook cachedNotebook, RemovalCause cause) {
+        if (noteBookOffHeapCache != null && cause == RemovalCause.SIZE && cachedNotebook != null)
+            noteBookOffHeapCache.put(cachedNotebook.toDto());
+    }
+
+    private CachedNotebook takeFromOffHeap(int id) {
+        if (noteBookOffHeapCache == null)
+            return null;
+        NotebookDto notebookDto = noteBookOffHeapCache.take(id);
+        return notebookDto == null ? null : new CachedNotebook(notebookDto);
+    }
+
+    private void removeFromOffHeap(int id) {
+        if (noteBookOffHeapCache != null)
+            noteBookOffHeapCache.invalidate(id);
+    }
+
+    private void addLoadedNoteBook(NotebookDto notebookDto, long readStamp) {
+        noteBookCache.asMap().compute(notebookDto.getId(), (id, cachedNotebook) -> {
+            if (cachedNotebook != null)
+                return cachedNotebook;
+            Long writeStamp = noteBookWriteStamps.getIfPresent(id);
+            return writeStamp != null && writeStamp > readStamp ? null : new CachedNotebook(notebookDto);
+        });
+    }
 
+    private void markNoteBookChanged(int notebookId) {
+        noteBookWriteStamps.put(notebookId, stamps.incrementAndGet());
     }
 
-    public void removeNoteFromCache(int id) {
-        if (noteCache.getIfPresent(id) != null)
-            noteCache.invalidate(id);
+    private static double weightedSize(Cache<?, ?> cache) {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
     }
 
+    static NoteDto newerVersion(NoteDto cached, NoteDto added) {
+        return cached.getVersion() > added.getVersion() ? cached : added;
+    }
+
+    private class NoteLoader implements CacheLoader<Integer, NoteDto> {
+
+        @Override
+        public NoteDto load(Integer id) {
+            return dtoLoader.loadNote(id);
+        }
 
+        @Override
+        public NoteDto reload(Integer id, NoteDto cached) {
+            NoteDto loaded = dtoLoader.loadNote(id);
+            return loaded == null ? null : newerVersion(cached, loaded);
+        }
+    }
+
+    private class NotebookLoader implements CacheLoader<Integer, CachedNotebook> {
+
+        @Override
+        public CachedNotebook load(Integer id) {
+            CachedNotebook promoted = takeFromOffHeap(id);
+            if (promoted != null)
+                return promoted;
+            NotebookDto loaded = dtoLoader.loadNotebook(id);
+            return loaded == null ? null : new CachedNotebook(loaded);
+        }
+
+        /**
+         * refreshes notes of the cached notebook in place, so changes patched in during the reload are kept.
+         * cached notes missing from the loaded notebook were deleted by change not seen by this instance and are
+         * removed, unless the notebook was changed since the load started, as they may be notes added by the change.
+         * refresh is applied under the lock of the notebook entry, so it is not interleaved with the changes
+         */
+        @Override
+        public CachedNotebook reload(Integer id, CachedNotebook cached) {
+            long readStamp = stamps.get();
+            NotebookDto loaded = dtoLoader.loadNotebook(id);
+            if (loaded == null)
+                return null;
+            Set<Integer> loadedNoteIds = loaded.getNotes().stream().map(NoteDto::getId).collect(Collectors.toSet());
+            noteBookCache.asMap().computeIfPresent(id, (key, current) -> {
+                if (current != cached)
+                    return current;
+                loaded.getNotes().stream().filter(note -> deletedNotes.getIfPresent(note.getId()) == null)
+                        .forEach(cached::putNote);
+                Long writeStamp = noteBookWriteStamps.getIfPresent(id);
+                if (writeStamp == null || writeStamp <= readStamp)
+                    cached.retainNotes(loadedNoteIds);
+                return current;
+            });
+            return cached;
+        }
+    }
 }
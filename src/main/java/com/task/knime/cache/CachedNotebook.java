@@ -0,0 +1,102 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * notebook cache entry, notes are kept by note id so single note can be added, replaced or removed in place
+ * in logarithmic time regardless of notebook size. dto is assembled from the entry on read.
+ * note is replaced only by the same or newer version of it.
+ * fingerprint of the notes ids and versions is kept along with the notes, so notebook etag is read without
+ * assembling the dto. it does not depend on the order of changes, so reloaded notebook has the same etag.
+ * estimated heap size of the entry is kept up to date by the changes as well, so it is weighed in constant time.
+ */
+class CachedNotebook {
+
+    private final int id;
+    private final String name;
+    private final ConcurrentNavigableMap<Integer, NoteDto> notesById = new ConcurrentSkipListMap<>();
+    // guarded by this, notes are changed under the same lock while readers of the notes are not blocked
+    private long fingerprint;
+    private long estimatedBytes;
+
+    CachedNotebook(NotebookDto notebookDto) {
+        this.id = notebookDto.getId();
+        this.name = notebookDto.getName();
+        this.estimatedBytes = DtoWeigher.NOTEBOOK_BYTES + DtoWeigher.stringBytes(name);
+        if (notebookDto.getNotes() != null)
+            notebookDto.getNotes().forEach(this::putNote);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Set<Integer> getNoteIds() {
+        return notesById.keySet();
+    }
+
+    synchronized void putNote(NoteDto noteDto) {
+        NoteDto cached = notesById.get(noteDto.getId());
+        if (cached != null) {
+            if (CacheManager.newerVersion(cached, noteDto) == cached)
+                return;
+            fingerprint -= fingerprint(cached);
+            estimatedBytes -= DtoWeigher.noteBytes(cached);
+        } else {
+            estimatedBytes += DtoWeigher.NOTEBOOK_NOTE_BYTES;
+        }
+        notesById.put(noteDto.getId(), noteDto);
+        fingerprint += fingerprint(noteDto);
+        estimatedBytes += DtoWeigher.noteBytes(noteDto);
+    }
+
+    synchronized void removeNote(int noteId) {
+        NoteDto removed = notesById.remove(noteId);
+        if (removed != null) {
+            fingerprint -= fingerprint(removed);
+            estimatedBytes -= DtoWeigher.NOTEBOOK_NOTE_BYTES + DtoWeigher.noteBytes(removed);
+        }
+    }
+
+    /**
+     * removes the notes whose ids are not given
+     */
+    synchronized void retainNotes(Set<Integer> noteIds) {
+        new ArrayList<>(notesById.keySet()).stream().filter(noteId -> !noteIds.contains(noteId))
+                .forEach(this::removeNote);
+    }
+
+    /**
+     * @return estimated heap bytes of the notebook with its notes
+     */
+    synchronized int getEstimatedBytes() {
+        return (int) Math.min(estimatedBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * should be read before the notes, so notebook is never older than its version
+     */
+    synchronized ResourceVersion getVersion() {
+        return new ResourceVersion("\"" + id + "-" + notesById.size() + "-" + Long.toHexString(fingerprint) + "\"");
+    }
+
+    /**
+     * well mixed hash of note id and version, summed over the notes
+     */
+    private static long fingerprint(NoteDto noteDto) {
+        long hash = ((long) noteDto.getId() << 32 ^ noteDto.getVersion()) + 0x9E3779B97F4A7C15L;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    NotebookDto toDto() {
+        return NotebookDto.builder().id(id).name(name).notes(new ArrayList<>(notesById.values())).build();
+    }
+}
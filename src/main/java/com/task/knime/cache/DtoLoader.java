@@ -0,0 +1,28 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * source of the cached dtos, called by the cache on miss and on refresh
+ */
+public interface DtoLoader {
+
+    /**
+     * @return note with its tags, null if there is no such note
+     */
+    NoteDto loadNote(int id);
+
+    /**
+     * @return notebook with all its notes, null if there is no such notebook
+     */
+    NotebookDto loadNotebook(int id);
+
+    /**
+     * @return notebooks with all their notes by notebook id, missing ids are absent
+     */
+    Map<Integer, NotebookDto> loadNotebooks(Collection<Integer> ids);
+}
@@ -0,0 +1,60 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.NoteDto;
+
+import java.util.List;
+
+/**
+ * estimates heap bytes retained by cached dtos for weight based eviction, from the sizes of their objects on 64 bit
+ * jvm with compressed references. strings are counted as latin-1 compact strings of one byte per character.
+ * estimate is kept cheap, it is computed for every cached note
+ */
+final class DtoWeigher {
+
+    /**
+     * cache entry node with its boxed key
+     */
+    static final int ENTRY_BYTES = 80;
+
+    /**
+     * notebook entry object and its notes map
+     */
+    static final int NOTEBOOK_BYTES = 96;
+
+    /**
+     * note node of the notebook notes map with its boxed key and share of the index nodes
+     */
+    static final int NOTEBOOK_NOTE_BYTES = 48;
+
+    private static final int NOTE_BYTES = 48;
+
+    private static final int STRING_BYTES = 40;
+
+    private static final int DATE_BYTES = 24;
+
+    private static final int LIST_BYTES = 40;
+
+    private static final int REFERENCE_BYTES = 4;
+
+    private DtoWeigher() {
+    }
+
+    static int noteBytes(NoteDto note) {
+        int bytes = NOTE_BYTES + stringBytes(note.getTitle()) + stringBytes(note.getBody());
+        if (note.getCreatedTime() != null)
+            bytes += DATE_BYTES;
+        if (note.getLastModified() != null)
+            bytes += DATE_BYTES;
+        List<String> tags = note.getTags();
+        if (tags != null) {
+            bytes += LIST_BYTES + REFERENCE_BYTES * tags.size();
+            for (String tag : tags)
+                bytes += stringBytes(tag);
+        }
+        return bytes;
+    }
+
+    static int stringBytes(String value) {
+        return value == null ? 0 : STRING_BYTES + value.length();
+    }
+}
@@ -0,0 +1,20 @@
+package com.task.knime.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * carries cache invalidations between the instances of the service, so instance does not serve notes and notebooks
+ * changed by another instance until they expire. transport is selected by cache.invalidation.transport property
+ */
+public interface InvalidationTransport {
+
+    /**
+     * sends committed change to the other instances, called after commit and should not wait for them
+     */
+    void broadcast(CacheInvalidation invalidation);
+
+    /**
+     * starts receiving changes of the other instances, own changes are not received
+     */
+    void subscribe(Consumer<CacheInvalidation> listener);
+}
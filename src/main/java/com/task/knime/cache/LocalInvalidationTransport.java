@@ -0,0 +1,22 @@
+package com.task.knime.cache;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * transport of single instance, there is no other instance to invalidate
+ */
+@Component
+@ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = "none", matchIfMissing = true)
+public class LocalInvalidationTransport implements InvalidationTransport {
+
+    @Override
+    public void broadcast(CacheInvalidation invalidation) {
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheInvalidation> listener) {
+    }
+}
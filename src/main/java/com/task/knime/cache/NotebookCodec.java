@@ -0,0 +1,121 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * compact binary form of notebook with its notes, strings are length prefixed utf-8 and missing values are
+ * written as negative length or minimal long, so notebook is read back equal to the written one
+ */
+final class NotebookCodec {
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private NotebookCodec() {
+    }
+
+    /**
+     * @return direct buffer ready to be read, with capacity of the encoded size
+     */
+    static ByteBuffer encode(NotebookDto notebookDto) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(notebookDto.getId());
+            writeString(out, notebookDto.getName());
+            List<NoteDto> notes = notebookDto.getNotes();
+            out.writeInt(notes == null ? NULL_LENGTH : notes.size());
+            if (notes != null) {
+                for (NoteDto note : notes)
+                    writeNote(out, note);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+        buffer.put(bytes.toByteArray()).flip();
+        return buffer;
+    }
+
+    static NotebookDto decode(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        int id = in.getInt();
+        String name = readString(in);
+        int notesCount = in.getInt();
+        List<NoteDto> notes = null;
+        if (notesCount != NULL_LENGTH) {
+            notes = new ArrayList<>(notesCount);
+            for (int i = 0; i < notesCount; i++)
+                notes.add(readNote(in));
+        }
+        return NotebookDto.builder().id(id).name(name).notes(notes).build();
+    }
+
+    private static void writeNote(DataOutputStream out, NoteDto note) throws IOException {
+        out.writeInt(note.getId());
+        out.writeInt(note.getNotebookId());
+        writeString(out, note.getTitle());
+        List<String> tags = note.getTags();
+        out.writeInt(tags == null ? NULL_LENGTH : tags.size());
+        if (tags != null) {
+            for (String tag : tags)
+                writeString(out, tag);
+        }
+        writeDate(out, note.getCreatedTime());
+        writeDate(out, note.getLastModified());
+        writeString(out, note.getBody());
+        out.writeLong(note.getVersion());
+    }
+
+    private static NoteDto readNote(ByteBuffer in) {
+        NoteDto.NoteDtoBuilder note = NoteDto.builder().id(in.getInt()).NotebookId(in.getInt()).title(readString(in));
+        int tagsCount = in.getInt();
+        if (tagsCount != NULL_LENGTH) {
+            List<String> tags = new ArrayList<>(tagsCount);
+            for (int i = 0; i < tagsCount; i++)
+                tags.add(readString(in));
+            note.tags(tags);
+        }
+        return note.createdTime(readDate(in)).lastModified(readDate(in)).body(readString(in)).version(in.getLong())
+                .build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL_LENGTH)
+            return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeLong(value == null ? NULL_DATE : value.getTime());
+    }
+
+    private static Date readDate(ByteBuffer in) {
+        long time = in.getLong();
+        return time == NULL_DATE ? null : new Date(time);
+    }
+}
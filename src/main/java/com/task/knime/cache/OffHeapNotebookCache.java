@@ -0,0 +1,64 @@
+package com.task.knime.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.task.knime.dto.NotebookDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * second level of the notebook cache. notebooks evicted from the first level are kept encoded by
+ * {@link NotebookCodec} in direct buffers outside of the heap and evicted by their size in bytes, heap holds only
+ * the keys and the buffer references, so many more notebooks are cached without old generation pressure.
+ * notebook read from here is moved back to the first level. hits and misses are published as cache metrics named
+ * notebooks-offheap, counted only for reads missed by the first level, and the used bytes as cache.size.bytes.
+ */
+class OffHeapNotebookCache {
+
+    static final String NAME = "notebooks-offheap";
+
+    private final Cache<Integer, ByteBuffer> buffers;
+
+    OffHeapNotebookCache(long maximumBytes, int expirationMinutes, MeterRegistry meterRegistry) {
+        buffers = Caffeine.newBuilder()
+                .expireAfterWrite(expirationMinutes, TimeUnit.MINUTES)
+                .maximumWeight(maximumBytes)
+                .weigher((Integer id, ByteBuffer buffer) -> buffer.capacity())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, buffers, NAME);
+        Gauge.builder("cache.size.bytes", this, OffHeapNotebookCache::weightedSize).tag("cache", NAME)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    void put(NotebookDto notebookDto) {
+        buffers.put(notebookDto.getId(), NotebookCodec.encode(notebookDto));
+    }
+
+    /**
+     * @return removed notebook, null if it is not cached
+     */
+    NotebookDto take(int id) {
+        ByteBuffer buffer = buffers.getIfPresent(id);
+        if (buffer == null)
+            return null;
+        buffers.invalidate(id);
+        return NotebookCodec.decode(buffer);
+    }
+
+    void invalidate(int id) {
+        buffers.invalidate(id);
+    }
+
+    /**
+     * @return bytes of the cached notebooks, pending writes are applied first
+     */
+    long weightedSize() {
+        buffers.cleanUp();
+        return buffers.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+}
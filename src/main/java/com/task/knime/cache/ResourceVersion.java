@@ -0,0 +1,21 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.NoteDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * validator of cached note or notebook for conditional requests, strong etag derived from the versions set by the
+ * server. there is no last modified time, as the last modified of notes is given by clients and deleting note does
+ * not leave a time in its notebook, so it would not always advance on change
+ */
+@Getter
+@AllArgsConstructor
+public class ResourceVersion {
+
+    private final String eTag;
+
+    public static ResourceVersion of(NoteDto noteDto) {
+        return new ResourceVersion("\"" + noteDto.getId() + "-" + noteDto.getVersion() + "\"");
+    }
+}
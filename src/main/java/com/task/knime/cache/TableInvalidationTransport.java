@@ -0,0 +1,166 @@
+package com.task.knime.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.task.knime.model.CacheInvalidationEntity;
+import com.task.knime.repository.CacheInvalidationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * transport through invalidation table of the database shared by the instances. broadcast invalidations are queued
+ * and written in batch by the poller thread, which then reads the invalidations written by the other instances since
+ * its previous poll, so writers never wait for the table. invalidations written with creation time earlier than the
+ * previous poll, because of late commit or clock skew between instances, are still read during overlap millis and
+ * invalidation read more than once is applied once. invalidations older than the retention are deleted.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = "table")
+public class TableInvalidationTransport implements InvalidationTransport {
+
+    private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    @Value("${cache.invalidation.poll-interval-millis}")
+    long pollIntervalMillis;
+
+    @Value("${cache.invalidation.overlap-millis}")
+    long overlapMillis;
+
+    @Value("${cache.invalidation.retention-minutes}")
+    long retentionMinutes;
+
+    @Autowired
+    CacheInvalidationRepository cacheInvalidationRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final String origin = UUID.randomUUID().toString();
+    private final Queue<CacheInvalidation> outgoing = new ConcurrentLinkedQueue<>();
+    private Cache<Long, Boolean> receivedIds;
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService poller;
+    private Consumer<CacheInvalidation> listener;
+    private long lastPoll;
+    private long lastPurge;
+    private Counter sent;
+    private Counter received;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        receivedIds = Caffeine.newBuilder()
+                .expireAfterWrite(2 * (overlapMillis + pollIntervalMillis), TimeUnit.MILLISECONDS)
+                .build();
+        sent = meterRegistry.counter("cache.invalidations.sent");
+        received = meterRegistry.counter("cache.invalidations.received");
+    }
+
+    /**
+     * stops polling and writes the queued invalidations, before the database beans are destroyed
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void close() throws InterruptedException {
+        if (poller == null)
+            return;
+        poller.shutdown();
+        if (poller.awaitTermination(pollIntervalMillis, TimeUnit.MILLISECONDS))
+            poll();
+    }
+
+    @Override
+    public void broadcast(CacheInvalidation invalidation) {
+        outgoing.add(invalidation);
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<CacheInvalidation> listener) {
+        this.listener = listener;
+        lastPoll = System.currentTimeMillis();
+        lastPurge = lastPoll;
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-invalidation-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * writes the queued invalidations and applies the ones of the other instances
+     */
+    synchronized void poll() {
+        try {
+            flush();
+            receive();
+            purge();
+        } catch (RuntimeException e) {
+            log.warn("cache invalidation poll failed", e);
+        }
+    }
+
+    private void flush() {
+        List<CacheInvalidationEntity> pending = new ArrayList<>();
+        Date now = new Date();
+        for (CacheInvalidation invalidation; (invalidation = outgoing.poll()) != null; )
+            pending.add(new CacheInvalidationEntity(origin, invalidation.getNotebookId(), invalidation.getNoteId(),
+                    invalidation.isDeleted(), now));
+        if (pending.isEmpty())
+            return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> cacheInvalidationRepository.saveAll(pending));
+        } catch (RuntimeException e) {
+            // sent again with the next poll
+            pending.forEach(entity -> outgoing.add(new CacheInvalidation(entity.getNotebookId(), entity.getNoteId(),
+                    entity.isDeleted())));
+            throw e;
+        }
+        sent.increment(pending.size());
+    }
+
+    private void receive() {
+        long pollStart = System.currentTimeMillis();
+        for (CacheInvalidationEntity entity :
+                cacheInvalidationRepository.findCreatedAfter(new Date(lastPoll - overlapMillis), origin)) {
+            if (receivedIds.asMap().putIfAbsent(entity.getId(), true) != null)
+                continue;
+            listener.accept(new CacheInvalidation(entity.getNotebookId(), entity.getNoteId(), entity.isDeleted()));
+            received.increment();
+        }
+        lastPoll = pollStart;
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < PURGE_INTERVAL)
+            return;
+        lastPurge = now;
+        Date before = new Date(now - TimeUnit.MINUTES.toMillis(retentionMinutes));
+        transactionTemplate.executeWithoutResult(status -> cacheInvalidationRepository.deleteCreatedBefore(before));
+    }
+}
@@ -0,0 +1,114 @@
+package com.task.knime.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.task.knime.model.TagEntity;
+import com.task.knime.repository.TagRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * interns tag values into the tags dictionary table, so every distinct value is stored once and notes refer to it
+ * by id. ids of the values are cached in memory and published as cache metrics named tags. dictionary rows are
+ * never updated or deleted, so cached ids do not become stale.
+ * missing values are inserted each in its own transaction, so concurrent insert of the same value by another
+ * transaction fails only that insert and the committed row is used instead.
+ * values are interned before the transaction of the note write is started, inserting them while the write holds
+ * its connection would take second connection of the pool for each write, and concurrent writes could exhaust the
+ * pool waiting for each other.
+ */
+@Component
+public class TagDictionary {
+
+    @Value("${cache.tag.size}")
+    int tagSizeCache;
+
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    Cache<String, Integer> tagIds;
+
+    private TransactionTemplate insertTemplate;
+
+    @PostConstruct
+    private void configure() {
+        tagIds = Caffeine.newBuilder()
+                .maximumSize(tagSizeCache)
+                .recordStats()
+                .build();
+        insertTemplate = new TransactionTemplate(transactionManager);
+        CaffeineCacheMetrics.monitor(meterRegistry, tagIds, "tags");
+    }
+
+    /**
+     * dictionary tags of the values, values not in the dictionary yet are added to it.
+     * returned tags are detached, they refer to the dictionary rows by id, so they can be added to notes
+     * without loading the rows
+     *
+     * @param values tag values
+     * @return tags by their values
+     * @throws IllegalStateException if called inside transaction
+     */
+    public Map<String, TagEntity> intern(Collection<String> values) {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            throw new IllegalStateException("tags should be interned before the transaction is started");
+        Map<String, Integer> ids = findIds(values);
+        Map<String, TagEntity> tags = new HashMap<>();
+        for (String value : values) {
+            if (tags.containsKey(value))
+                continue;
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = insert(value);
+                tagIds.put(value, id);
+            }
+            tags.put(value, new TagEntity(id, value));
+        }
+        return tags;
+    }
+
+    /**
+     * ids of the values present in the dictionary
+     *
+     * @param values tag values
+     * @return ids by values, values not in the dictionary are omitted
+     */
+    public Map<String, Integer> findIds(Collection<String> values) {
+        Map<String, Integer> ids = new HashMap<>(tagIds.getAllPresent(values));
+        List<String> missing = values.stream().filter(value -> !ids.containsKey(value)).distinct()
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            tagRepository.findAllByValueIn(missing).forEach(tag -> {
+                ids.put(tag.getValue(), tag.getId());
+                tagIds.put(tag.getValue(), tag.getId());
+            });
+        }
+        return ids;
+    }
+
+    private int insert(String value) {
+        try {
+            return insertTemplate.execute(status -> tagRepository.saveAndFlush(new TagEntity(value)).getId());
+        } catch (DataIntegrityViolationException e) {
+            // inserted concurrently by another transaction
+            return tagRepository.findByValue(value).orElseThrow(() -> e).getId();
+        }
+    }
+}
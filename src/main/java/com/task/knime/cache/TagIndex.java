@@ -0,0 +1,337 @@
+package com.task.knime.cache;
+
+import com.task.knime.dto.TagCountDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.repository.TagIndexEntry;
+import com.task.knime.repository.TagRepository;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * in memory inverted index from tag value to ids of the notes having this tag, scoped per notebook.
+ * note ids are kept in compressed roaring bitmaps so tags union and intersection are bitmap operations.
+ * ids of all notes of each notebook are kept as well, together with global number of notes of each tag,
+ * so notes count and top tags statistics are read without touching the notes.
+ * built on application startup from persisted notes and tags and kept current by the note write paths,
+ * until it is built lookups return empty result and callers should fall back to the database.
+ * changes done inside transaction are applied after its commit. changes committed while the index is being built
+ * are queued and applied in order on top of the loaded notes, so change committed after its note was loaded is not
+ * undone by the loaded state.
+ */
+@Component
+public class TagIndex {
+
+    private static final Comparator<TagCountDto> TOP_TAGS_ORDER = Comparator
+            .comparingLong(TagCountDto::getNoteCount).reversed().thenComparing(TagCountDto::getTag);
+
+    @Autowired
+    TagRepository tagRepository;
+
+    private final Map<Integer, NotebookTags> tagsByNotebook = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> notesCountByTag = new ConcurrentHashMap<>();
+
+    private final AtomicLong notesCount = new AtomicLong();
+
+    private volatile boolean ready;
+
+    /**
+     * changes are applied under its read lock, building switches between applying and queueing them under write lock
+     */
+    private final ReadWriteLock buildLock = new ReentrantReadWriteLock();
+
+    /**
+     * changes committed while the index is being built, null when not building
+     */
+    private Queue<Runnable> pendingChanges;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        buildLock.writeLock().lock();
+        try {
+            ready = false;
+            pendingChanges = new ConcurrentLinkedQueue<>();
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+
+        Map<Integer, NotebookTags> loaded = new HashMap<>();
+        try (Stream<TagIndexEntry> entries = tagRepository.streamAllTagIndexEntries()) {
+            entries.forEach(entry -> {
+                NotebookTags notebookTags = loaded.computeIfAbsent(entry.getNotebookId(), id -> new NotebookTags());
+                notebookTags.noteIds.add(entry.getNoteId());
+                if (entry.getValue() != null)
+                    notebookTags.noteIdsByTag.computeIfAbsent(entry.getValue(), value -> new RoaringBitmap())
+                            .add(entry.getNoteId());
+            });
+        } catch (RuntimeException e) {
+            // current index is kept with the queued changes, lookups fall back to the database
+            applyPendingChanges();
+            throw e;
+        }
+
+        buildLock.writeLock().lock();
+        try {
+            tagsByNotebook.clear();
+            notesCountByTag.clear();
+            notesCount.set(0);
+            loaded.forEach((notebookId, loadedTags) -> {
+                tagsByNotebook.put(notebookId, loadedTags);
+                notesCount.addAndGet(loadedTags.noteIds.getLongCardinality());
+                loadedTags.noteIdsByTag.forEach((tag, noteIds) -> countTagNotes(tag, noteIds.getLongCardinality()));
+            });
+            applyPendingChanges();
+            ready = true;
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void addNoteTags(int notebookId, int noteId, Collection<String> tagsValues) {
+        AfterCommit.run(() -> apply(() -> notebookTags(notebookId).write(notebookTags -> {
+            addNote(notebookTags, noteId);
+            tagsValues.forEach(tag -> addNoteId(notebookTags, tag, noteId));
+            return null;
+        })));
+    }
+
+    public void removeNoteTags(int notebookId, int noteId, Collection<String> tagsValues) {
+        AfterCommit.run(() -> apply(() -> {
+            NotebookTags notebookTags = tagsByNotebook.get(notebookId);
+            if (notebookTags != null)
+                notebookTags.write(tags -> {
+                    tagsValues.forEach(tag -> removeNoteId(tags, tag, noteId));
+                    return null;
+                });
+        }));
+    }
+
+    public void replaceNoteTags(int notebookId, int noteId, Collection<String> tagsValues) {
+        AfterCommit.run(() -> apply(() -> notebookTags(notebookId).write(notebookTags -> {
+            replaceTags(notebookTags, noteId, tagsValues);
+            addNote(notebookTags, noteId);
+            return null;
+        })));
+    }
+
+    public void removeNote(int notebookId, int noteId) {
+        AfterCommit.run(() -> apply(() -> notebookTags(notebookId).write(notebookTags -> {
+            replaceTags(notebookTags, noteId, Collections.emptyList());
+            if (notebookTags.noteIds.checkedRemove(noteId))
+                notesCount.decrementAndGet();
+            return null;
+        })));
+    }
+
+    public void removeNotebook(int notebookId) {
+        AfterCommit.run(() -> apply(() -> {
+            NotebookTags removed = tagsByNotebook.remove(notebookId);
+            if (removed != null)
+                removed.write(notebookTags -> {
+                    notesCount.addAndGet(-notebookTags.noteIds.getLongCardinality());
+                    notebookTags.noteIdsByTag.forEach((tag, noteIds) -> countTagNotes(tag, -noteIds.getLongCardinality()));
+                    notebookTags.noteIds.clear();
+                    notebookTags.noteIdsByTag.clear();
+                    return null;
+                });
+        }));
+    }
+
+    /**
+     * finds ids of notes of the notebook that have any or all of the tags
+     *
+     * @param notebookId id of the notebook
+     * @param tagsValues tags to be matched
+     * @param match      whether notes should have any of the tags or all of them
+     * @return ids of matching notes, empty if index is not built yet
+     */
+    public Optional<RoaringBitmap> findNoteIds(int notebookId, Collection<String> tagsValues, TagMatch match) {
+        if (!ready)
+            return Optional.empty();
+
+        NotebookTags notebookTags = tagsByNotebook.get(notebookId);
+        if (notebookTags == null)
+            return Optional.of(new RoaringBitmap());
+
+        return Optional.of(notebookTags.read(tags -> {
+            List<RoaringBitmap> bitmaps = new ArrayList<>(tagsValues.size());
+            for (String tag : tagsValues) {
+                RoaringBitmap noteIds = tags.noteIdsByTag.get(tag);
+                if (noteIds != null)
+                    bitmaps.add(noteIds);
+                else if (match == TagMatch.ALL)
+                    return new RoaringBitmap();
+            }
+            if (bitmaps.isEmpty())
+                return new RoaringBitmap();
+            if (bitmaps.size() == 1)
+                return bitmaps.get(0).clone();
+            return match == TagMatch.ALL ? FastAggregation.and(bitmaps.iterator()) : FastAggregation.or(bitmaps.iterator());
+        }));
+    }
+
+    /**
+     * @param notebookId id of the notebook
+     * @return number of notes of the notebook, empty if index is not built yet
+     */
+    public OptionalLong countNotes(int notebookId) {
+        if (!ready)
+            return OptionalLong.empty();
+        NotebookTags notebookTags = tagsByNotebook.get(notebookId);
+        return OptionalLong.of(notebookTags == null ? 0 : notebookTags.read(tags -> tags.noteIds.getLongCardinality()));
+    }
+
+    /**
+     * @return number of all notes, empty if index is not built yet
+     */
+    public OptionalLong countNotes() {
+        return ready ? OptionalLong.of(notesCount.get()) : OptionalLong.empty();
+    }
+
+    /**
+     * tags of the notebook having the most notes, ties ordered by tag value
+     *
+     * @param notebookId id of the notebook
+     * @param limit      maximal number of tags
+     * @return tags with their notes count, empty if index is not built yet
+     */
+    public Optional<List<TagCountDto>> findTopTags(int notebookId, int limit) {
+        if (!ready)
+            return Optional.empty();
+        NotebookTags notebookTags = tagsByNotebook.get(notebookId);
+        if (notebookTags == null)
+            return Optional.of(new ArrayList<>());
+        return Optional.of(notebookTags.read(tags -> topTags(tags.noteIdsByTag.entrySet().stream()
+                .map(entry -> new TagCountDto(entry.getKey(), entry.getValue().getLongCardinality())), limit)));
+    }
+
+    /**
+     * tags of all notebooks having the most notes, ties ordered by tag value
+     *
+     * @param limit maximal number of tags
+     * @return tags with their notes count, empty if index is not built yet
+     */
+    public Optional<List<TagCountDto>> findTopTags(int limit) {
+        if (!ready)
+            return Optional.empty();
+        return Optional.of(topTags(notesCountByTag.entrySet().stream()
+                .map(entry -> new TagCountDto(entry.getKey(), entry.getValue())), limit));
+    }
+
+    private static List<TagCountDto> topTags(Stream<TagCountDto> tagCounts, int limit) {
+        // min heap of the top tags seen so far, its head is the first to be replaced
+        PriorityQueue<TagCountDto> top = new PriorityQueue<>(limit + 1, TOP_TAGS_ORDER.reversed());
+        tagCounts.forEach(tagCount -> {
+            top.add(tagCount);
+            if (top.size() > limit)
+                top.poll();
+        });
+        List<TagCountDto> sorted = new ArrayList<>(top);
+        sorted.sort(TOP_TAGS_ORDER);
+        return sorted;
+    }
+
+    /**
+     * applies committed change, or queues it while the index is being built
+     */
+    private void apply(Runnable change) {
+        buildLock.readLock().lock();
+        try {
+            if (pendingChanges != null)
+                pendingChanges.add(change);
+            else
+                change.run();
+        } finally {
+            buildLock.readLock().unlock();
+        }
+    }
+
+    private void applyPendingChanges() {
+        buildLock.writeLock().lock();
+        try {
+            pendingChanges.forEach(Runnable::run);
+            pendingChanges = null;
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    private NotebookTags notebookTags(int notebookId) {
+        return tagsByNotebook.computeIfAbsent(notebookId, id -> new NotebookTags());
+    }
+
+    private void addNote(NotebookTags notebookTags, int noteId) {
+        if (notebookTags.noteIds.checkedAdd(noteId))
+            notesCount.incrementAndGet();
+    }
+
+    private void replaceTags(NotebookTags notebookTags, int noteId, Collection<String> tagsValues) {
+        new ArrayList<>(notebookTags.noteIdsByTag.keySet()).forEach(tag -> removeNoteId(notebookTags, tag, noteId));
+        tagsValues.forEach(tag -> addNoteId(notebookTags, tag, noteId));
+    }
+
+    private void addNoteId(NotebookTags notebookTags, String tag, int noteId) {
+        if (notebookTags.noteIdsByTag.computeIfAbsent(tag, value -> new RoaringBitmap()).checkedAdd(noteId))
+            countTagNotes(tag, 1);
+    }
+
+    private void removeNoteId(NotebookTags notebookTags, String tag, int noteId) {
+        RoaringBitmap noteIds = notebookTags.noteIdsByTag.get(tag);
+        if (noteIds != null && noteIds.checkedRemove(noteId)) {
+            countTagNotes(tag, -1);
+            if (noteIds.isEmpty())
+                notebookTags.noteIdsByTag.remove(tag);
+        }
+    }
+
+    private void countTagNotes(String tag, long delta) {
+        if (delta != 0)
+            notesCountByTag.merge(tag, delta, (count, added) -> count + added == 0 ? null : count + added);
+    }
+
+    /**
+     * bitmaps of single notebook, guarded by read write lock since roaring bitmaps are not thread safe
+     */
+    private static class NotebookTags {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final RoaringBitmap noteIds = new RoaringBitmap();
+        private final Map<String, RoaringBitmap> noteIdsByTag = new HashMap<>();
+
+        <T> T read(Function<NotebookTags, T> reader) {
+            lock.readLock().lock();
+            try {
+                return reader.apply(this);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        <T> T write(Function<NotebookTags, T> writer) {
+            lock.writeLock().lock();
+            try {
+                return writer.apply(this);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
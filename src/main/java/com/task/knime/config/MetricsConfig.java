@@ -0,0 +1,19 @@
+package com.task.knime.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * enables {@link io.micrometer.core.annotation.Timed} on service methods, timers are tagged by class and method.
+ * percentiles of the timers are configured via properties file
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
@@ -0,0 +1,27 @@
+package com.task.knime.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * committed mutation of note or notebook. ids of the events increase in order of publishing.
+ */
+@Data
+@Schema
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangeEventDto {
+
+    long id;
+    ChangeType type;
+    int notebookId;
+    @Schema(description = "id of the note, null for notebook events")
+    Integer noteId;
+    @Schema(description = "version of the note, null for notebook events")
+    Long version;
+    Date time;
+}
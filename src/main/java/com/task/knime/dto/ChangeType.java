@@ -0,0 +1,12 @@
+package com.task.knime.dto;
+
+/**
+ * kind of mutation published as change event.
+ */
+public enum ChangeType {
+    NOTEBOOK_CREATED,
+    NOTEBOOK_DELETED,
+    NOTE_CREATED,
+    NOTE_UPDATED,
+    NOTE_DELETED
+}
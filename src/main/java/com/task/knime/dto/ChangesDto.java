@@ -0,0 +1,27 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * notes created, modified or deleted after the since token, ordered by time of the change.
+ * nextSince is the token for the next request, changes may be returned again so notes should be applied by their
+ * version. changes are not skipped while instance clocks differ by less than sync.changes.clock-skew-millis.
+ */
+@Data
+@Schema
+@Builder
+public class ChangesDto {
+
+    @Schema(description = "created and modified notes")
+    List<NoteDto> notes;
+    @Schema(description = "deleted notes")
+    List<DeletedNoteDto> deleted;
+    @Schema(description = "value to pass as since for fetching the following changes")
+    String nextSince;
+    @Schema(description = "whether there are more changes to fetch right away with nextSince")
+    boolean hasMore;
+}
@@ -0,0 +1,20 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * note deleted by itself or together with its notebook.
+ */
+@Data
+@Schema
+@Builder
+public class DeletedNoteDto {
+
+    int noteId;
+    int notebookId;
+    Date deletedAt;
+}
@@ -0,0 +1,20 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * summary of notebooks import with the number of created notebooks and notes and the import throughput.
+ */
+@Data
+@Schema
+@Builder
+public class ImportSummaryDto {
+
+    long notebooks;
+    long notes;
+    long durationMillis;
+    @Schema(description = "imported notes per second")
+    long notesPerSecond;
+}
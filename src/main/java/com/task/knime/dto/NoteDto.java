@@ -28,5 +28,7 @@ public class NoteDto {
     Date lastModified;
     @NotNull(message = "please provide body")
     String body;
+    @Schema(required = false, hidden = true)
+    long version;
 
 }
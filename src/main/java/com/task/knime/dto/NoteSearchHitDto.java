@@ -0,0 +1,19 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * single full text search result, ranked by score. full note can be retrieved by its id via note api.
+ */
+@Data
+@Schema
+@Builder
+public class NoteSearchHitDto {
+
+    int noteId;
+    int notebookId;
+    String title;
+    float score;
+}
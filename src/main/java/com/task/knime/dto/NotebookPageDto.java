@@ -0,0 +1,21 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * one page of notebook summaries ordered by notebook id.
+ * nextAfterId is the cursor for the next page, null when there are no more notebooks.
+ */
+@Data
+@Schema
+@Builder
+public class NotebookPageDto {
+
+    List<NotebookSummaryDto> notebooks;
+    @Schema(description = "value to pass as afterId for fetching the next page, null on the last page")
+    Integer nextAfterId;
+}
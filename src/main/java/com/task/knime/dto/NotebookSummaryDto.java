@@ -0,0 +1,31 @@
+package com.task.knime.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * notebook summary dto with notebook name and the number of notes it holds.
+ * notes are populated only when explicitly requested.
+ */
+@Data
+@Schema
+@Builder
+@AllArgsConstructor
+public class NotebookSummaryDto {
+
+    int id;
+    String name;
+    long noteCount;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(required = false, description = "notes of the notebook, returned only when includeNotes is requested")
+    List<NoteDto> notes;
+
+    public NotebookSummaryDto(int id, String name, long noteCount) {
+        this(id, name, noteCount, null);
+    }
+}
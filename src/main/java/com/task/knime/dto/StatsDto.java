@@ -0,0 +1,24 @@
+package com.task.knime.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * notes statistics of single notebook or of all notebooks, number of notes and the tags having the most notes.
+ */
+@Data
+@Schema
+@Builder
+public class StatsDto {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "id of the notebook, null for statistics of all notebooks")
+    Integer notebookId;
+    long noteCount;
+    @Schema(description = "tags with the most notes, ordered by number of notes")
+    List<TagCountDto> topTags;
+}
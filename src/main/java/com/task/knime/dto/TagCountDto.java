@@ -0,0 +1,17 @@
+package com.task.knime.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * tag value with the number of notes having it.
+ */
+@Data
+@Schema
+@AllArgsConstructor
+public class TagCountDto {
+
+    String tag;
+    long noteCount;
+}
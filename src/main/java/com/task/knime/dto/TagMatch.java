@@ -0,0 +1,10 @@
+package com.task.knime.dto;
+
+/**
+ * matching mode for filtering notes by multiple tags.
+ * ANY matches notes having at least one of the tags, ALL matches notes having every one of the tags.
+ */
+public enum TagMatch {
+    ANY,
+    ALL
+}
@@ -0,0 +1,263 @@
+package com.task.knime.events;
+
+import com.task.knime.cache.AfterCommit;
+import com.task.knime.dto.ChangeEventDto;
+import com.task.knime.dto.ChangeType;
+import com.task.knime.dto.NoteDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * in process bus of committed note and notebook mutations. the latest events are kept in bounded ring buffer,
+ * publishing writes the event to its slot and never waits for subscribers. every subscription keeps its position
+ * in the ring and is drained by the sender threads. send blocked for longer than the send timeout, because the
+ * subscriber does not read, drops the subscriber and another sender thread is started in place of the blocked one,
+ * so blocked subscriber delays the others by at most the send timeout. dropped subscriber is resynced once its
+ * blocked send returns and the extra sender thread is stopped. subscriber that falls behind by more than the ring
+ * size, or resumes from event no longer kept, is resynced and dropped as well.
+ * event ids start from the startup time, so ids of previous runs are older than all the kept events.
+ * events of transaction are published after its commit.
+ */
+@Slf4j
+@Component
+public class ChangeEventBus {
+
+    private static final int IDLE = 0;
+    private static final int SENDING = 1;
+    private static final int BLOCKED = 2;
+
+    @Value("${events.buffer.size}")
+    int bufferSize;
+
+    @Value("${events.sender.threads}")
+    int senderThreads;
+
+    @Value("${events.send.timeout}")
+    Duration sendTimeout;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private AtomicReferenceArray<ChangeEventDto> ring;
+    private long firstId;
+    private AtomicLong lastId;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor senderThreadPool;
+    Executor sender;
+    private ScheduledExecutorService watchdog;
+    private int blockedSenders;
+    private Counter published;
+    private Counter resyncs;
+
+    @PostConstruct
+    private void init() {
+        ring = new AtomicReferenceArray<>(bufferSize);
+        firstId = System.currentTimeMillis() * 1000;
+        lastId = new AtomicLong(firstId - 1);
+        AtomicInteger threads = new AtomicInteger();
+        senderThreadPool = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "change-event-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender = senderThreadPool;
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-event-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkInterval = Math.max(1, sendTimeout.toMillis() / 2);
+        watchdog.scheduleWithFixedDelay(this::dropBlocked, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        published = meterRegistry.counter("events.published");
+        resyncs = meterRegistry.counter("events.resyncs");
+        Gauge.builder("events.subscribers", subscriptions, Set::size).register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void close() {
+        watchdog.shutdownNow();
+        senderThreadPool.shutdownNow();
+    }
+
+    public void publishNote(ChangeType type, NoteDto noteDto) {
+        publish(type, noteDto.getNotebookId(), noteDto.getId(), noteDto.getVersion());
+    }
+
+    public void publishNote(ChangeType type, int notebookId, int noteId, long version) {
+        publish(type, notebookId, noteId, version);
+    }
+
+    public void publishNotebook(ChangeType type, int notebookId) {
+        publish(type, notebookId, null, null);
+    }
+
+    private void publish(ChangeType type, int notebookId, Integer noteId, Long version) {
+        AfterCommit.run(() -> {
+            long id = lastId.incrementAndGet();
+            ring.set(slot(id), ChangeEventDto.builder().id(id).type(type).notebookId(notebookId).noteId(noteId)
+                    .version(version).time(new Date()).build());
+            published.increment();
+            subscriptions.forEach(Subscription::schedule);
+        });
+    }
+
+    /**
+     * subscribes to the events, events published before subscribing are sent first if resumed from last event id
+     *
+     * @param notebookId  id of the notebook to receive events of, null for events of all notebooks
+     * @param lastEventId id of the last event received by previous subscription, null for new events only
+     * @param sink        receiver of the events
+     * @return subscription to be cancelled once sink is closed
+     */
+    public Subscription subscribe(Integer notebookId, Long lastEventId, EventSink sink) {
+        Subscription subscription = new Subscription(notebookId, lastEventId == null ? lastId.get() : lastEventId, sink);
+        subscriptions.add(subscription);
+        subscription.schedule();
+        return subscription;
+    }
+
+    /**
+     * drops the subscribers whose send is blocked for longer than the send timeout
+     */
+    private void dropBlocked() {
+        long now = System.nanoTime();
+        subscriptions.forEach(subscription -> {
+            if (subscription.state.get() == SENDING && now - subscription.sendStarted > sendTimeout.toNanos()
+                    && subscription.state.compareAndSet(SENDING, BLOCKED)) {
+                log.debug("change events subscriber blocked for more than {}, dropped", sendTimeout);
+                subscription.cancel();
+                resizeSenders(1);
+            }
+        });
+    }
+
+    /**
+     * adds sender thread in place of blocked one, or removes it once the blocked send returned
+     */
+    private synchronized void resizeSenders(int blocked) {
+        blockedSenders += blocked;
+        int size = senderThreads + blockedSenders;
+        if (blocked > 0) {
+            senderThreadPool.setMaximumPoolSize(size);
+            senderThreadPool.setCorePoolSize(size);
+        } else {
+            senderThreadPool.setCorePoolSize(size);
+            senderThreadPool.setMaximumPoolSize(size);
+        }
+    }
+
+    private int slot(long id) {
+        return (int) (id % bufferSize);
+    }
+
+    public class Subscription {
+
+        private final Integer notebookId;
+        private final EventSink sink;
+        // id of the last handled event, accessed only by the single drain running at a time
+        private long position;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean cancelled;
+        // IDLE, SENDING while in the sink, BLOCKED once dropped by the watchdog
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile long sendStarted;
+
+        private Subscription(Integer notebookId, long position, EventSink sink) {
+            this.notebookId = notebookId;
+            this.position = position;
+            this.sink = sink;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            if (!cancelled && scheduled.compareAndSet(false, true))
+                sender.execute(this::drain);
+        }
+
+        private void drain() {
+            do {
+                try {
+                    sendAvailable();
+                } catch (IOException | RuntimeException e) {
+                    log.debug("change events subscriber dropped", e);
+                    cancel();
+                }
+                scheduled.set(false);
+            } while (!cancelled && isAvailable(position + 1) && scheduled.compareAndSet(false, true));
+        }
+
+        private void sendAvailable() throws IOException {
+            while (!cancelled) {
+                long id = position + 1;
+                if (id < firstId || id > lastId.get() + 1) {
+                    resync();
+                    return;
+                }
+                ChangeEventDto event = ring.get(slot(id));
+                // not published yet, its publisher schedules the drain again
+                if (event == null || event.getId() < id)
+                    return;
+                // overwritten by newer event
+                if (event.getId() > id) {
+                    resync();
+                    return;
+                }
+                position = id;
+                if (notebookId == null || notebookId == event.getNotebookId())
+                    send(event);
+            }
+        }
+
+        private void send(ChangeEventDto event) throws IOException {
+            sendStarted = System.nanoTime();
+            state.set(SENDING);
+            try {
+                sink.send(event);
+            } finally {
+                if (!state.compareAndSet(SENDING, IDLE)) {
+                    resizeSenders(-1);
+                    resync();
+                }
+            }
+        }
+
+        private boolean isAvailable(long id) {
+            ChangeEventDto event = ring.get(slot(id));
+            return event != null && event.getId() >= id;
+        }
+
+        private void resync() throws IOException {
+            resyncs.increment();
+            cancel();
+            sink.resync();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.task.knime.events;
+
+import com.task.knime.dto.ChangeEventDto;
+
+import java.io.IOException;
+
+/**
+ * receiver of the events of single subscription, called from the event bus sender threads one call at a time
+ */
+public interface EventSink {
+
+    void send(ChangeEventDto event) throws IOException;
+
+    /**
+     * events were missed, because subscriber fell behind or resumed from event no longer kept. subscription is
+     * cancelled after this call and the subscriber should reload its state and subscribe again
+     */
+    void resync() throws IOException;
+}
@@ -0,0 +1,10 @@
+package com.task.knime.exception;
+
+public class ChangesExpiredException extends RuntimeException {
+
+    private static final long serialVersionUID = 4127093186517930518L;
+
+    public ChangesExpiredException(String message) {
+        super(message);
+    }
+}
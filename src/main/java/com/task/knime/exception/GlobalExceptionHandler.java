@@ -1,11 +1,13 @@
 package com.task.knime.exception;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 
+import javax.validation.ConstraintViolationException;
 import java.util.Date;
 
 @ControllerAdvice
@@ -38,4 +40,25 @@ public class GlobalExceptionHandler {
                 new ExceptionDetails(new Date(), exception.getMessage(), request.getDescription(false));
         return new ResponseEntity<>(exceptionDetails, HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(ChangesExpiredException.class)
+    public ResponseEntity<?> changesExpiredHandling(ChangesExpiredException exception, WebRequest request){
+        ExceptionDetails exceptionDetails =
+                new ExceptionDetails(new Date(), exception.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(exceptionDetails, HttpStatus.GONE);
+    }
+
+    @ExceptionHandler(ConstraintViolationException.class)
+    public ResponseEntity<?> constraintViolationHandling(ConstraintViolationException exception, WebRequest request){
+        ExceptionDetails exceptionDetails =
+                new ExceptionDetails(new Date(), exception.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(exceptionDetails, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<?> optimisticLockingFailureHandling(OptimisticLockingFailureException exception, WebRequest request){
+        ExceptionDetails exceptionDetails =
+                new ExceptionDetails(new Date(), exception.getMessage(), request.getDescription(false));
+        return new ResponseEntity<>(exceptionDetails, HttpStatus.CONFLICT);
+    }
 }
@@ -0,0 +1,48 @@
+package com.task.knime.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * DataBase Entity for the log of cache invalidations shared by the service instances
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "CACHE_INVALIDATION", indexes = @Index(name = "IDX_CACHE_INVALIDATION_CREATED_AT", columnList = "created_at"))
+public class CacheInvalidationEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cache_invalidation_seq")
+    @SequenceGenerator(name = "cache_invalidation_seq", sequenceName = "CACHE_INVALIDATION_SEQ", allocationSize = 50)
+    private long id;
+
+    @Column(name = "origin", nullable = false, length = 36)
+    String origin;
+
+    @Column(name = "notebook_id", nullable = false)
+    int notebookId;
+
+    @Column(name = "note_id")
+    Integer noteId;
+
+    @Column(name = "deleted", nullable = false)
+    boolean deleted;
+
+    @Column(name = "created_at", nullable = false)
+    Date createdAt;
+
+    public CacheInvalidationEntity() {
+    }
+
+    public CacheInvalidationEntity(String origin, int notebookId, Integer noteId, boolean deleted, Date createdAt) {
+        this.origin = origin;
+        this.notebookId = notebookId;
+        this.noteId = noteId;
+        this.deleted = deleted;
+        this.createdAt = createdAt;
+    }
+}
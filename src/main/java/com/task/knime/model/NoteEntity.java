@@ -2,25 +2,30 @@ package com.task.knime.model;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.DynamicUpdate;
 import org.springframework.data.annotation.CreatedDate;
 
 import javax.persistence.*;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
- * DataBase Entity for persisting NOTES
+ * DataBase Entity for persisting NOTES, updates write only the changed columns
  */
 @Getter
 @Setter
 @Entity
-@Table(name = "NOTES")
+@DynamicUpdate
+@Table(name = "NOTES", indexes = @Index(name = "IDX_NOTES_CHANGED_AT", columnList = "changed_at, id"))
 public class NoteEntity {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "note_seq")
+    @SequenceGenerator(name = "note_seq", sequenceName = "NOTE_SEQ", allocationSize = 50)
     public int id;
 
     @Column(name = "title")
@@ -40,11 +45,22 @@ public class NoteEntity {
     @Column(name = "modified_at")
     Date lastModified;
 
-    @OneToMany(
-            mappedBy = "note",
-            cascade = CascadeType.ALL,
-            orphanRemoval = true
-    )
+    /**
+     * time of the last write of the note, set on every insert and update. unlike last modified it is not given
+     * by clients, so changes are synced by it
+     */
+    @Column(name = "changed_at")
+    Date changedAt;
+
+    @Version
+    @Column(name = "version")
+    long version;
+
+    @ManyToMany
+    @JoinTable(name = "NOTE_TAG",
+            joinColumns = @JoinColumn(name = "note_id"),
+            inverseJoinColumns = @JoinColumn(name = "tag_id"),
+            indexes = @Index(name = "IDX_NOTE_TAG_TAG", columnList = "tag_id, note_id"))
     Set<TagEntity> tags = new HashSet<>();
 
     public NoteEntity() {
@@ -58,6 +74,12 @@ public class NoteEntity {
         this.lastModified = lastModified;
     }
 
+    @PrePersist
+    @PreUpdate
+    void onWrite() {
+        changedAt = new Date();
+    }
+
     public void setNotebook(NotebookEntity notebook) {
         this.notebook = notebook;
 
@@ -68,25 +90,28 @@ public class NoteEntity {
 
     public void addTag(TagEntity tag) {
         tags.add(tag);
+    }
+
+    public boolean addTags(Collection<TagEntity> tags) {
+        return this.tags.addAll(tags);
+    }
 
-        if (tag.getNote() != this)
-            tag.setNote(this);
+    public boolean removeTags(Collection<String> tagsValues) {
+        return tags.removeIf(tag -> tagsValues.contains(tag.getValue()));
+    }
 
+    public Set<String> getTagValues() {
+        return tags.stream().map(TagEntity::getValue).collect(Collectors.toSet());
     }
 
     public void deleteEntity() {
-        this.getNotebook().removeNote(this);
+        // notebook notes are not loaded only for removing this note from them
+        if (Hibernate.isInitialized(this.getNotebook().getNotes()))
+            this.getNotebook().removeNote(this);
         this.notebook = null;
     }
 
     public void deleteAllTags() {
-        Iterator<TagEntity> iterator = tags.iterator();
-        while (iterator.hasNext()) {
-            TagEntity tagEntity = iterator.next();
-            iterator.remove();
-            tagEntity.note = null;
-        }
-
-        this.getTags().clear();
+        tags.clear();
     }
 }
@@ -0,0 +1,40 @@
+package com.task.knime.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * DataBase Entity for the log of deleted notes, so deletions are synced along with the changed notes
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "NOTE_TOMBSTONE", indexes = @Index(name = "IDX_NOTE_TOMBSTONE_DELETED_AT", columnList = "deleted_at, id"))
+public class NoteTombstoneEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "note_tombstone_seq")
+    @SequenceGenerator(name = "note_tombstone_seq", sequenceName = "NOTE_TOMBSTONE_SEQ", allocationSize = 50)
+    private int id;
+
+    @Column(name = "note_id", nullable = false)
+    int noteId;
+
+    @Column(name = "notebook_id", nullable = false)
+    int notebookId;
+
+    @Column(name = "deleted_at", nullable = false)
+    Date deletedAt;
+
+    public NoteTombstoneEntity() {
+    }
+
+    public NoteTombstoneEntity(int noteId, int notebookId, Date deletedAt) {
+        this.noteId = noteId;
+        this.notebookId = notebookId;
+        this.deletedAt = deletedAt;
+    }
+}
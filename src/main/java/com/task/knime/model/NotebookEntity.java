@@ -3,27 +3,34 @@ package com.task.knime.model;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 /**
- * DataBase Entity for persisting Notebook
+ * DataBase Entity for persisting Notebook, updates write only the changed columns
  */
 @EqualsAndHashCode(onlyExplicitlyIncluded = true, callSuper = false)
 @Getter
 @Setter
 @Entity
+@DynamicUpdate
 @Table(name = "NOTEBOOK")
 public class NotebookEntity {
 
     @Id()
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "notebook_seq")
+    @SequenceGenerator(name = "notebook_seq", sequenceName = "NOTEBOOK_SEQ", allocationSize = 50)
     private int id;
 
     @Column
     String name;
 
+    @Version
+    @Column(name = "version")
+    long version;
+
     @OneToMany(
             mappedBy = "notebook",
             cascade = CascadeType.ALL,
@@ -1,48 +1,40 @@
 package com.task.knime.model;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 import javax.persistence.*;
 
 /**
- * DataBase Entity for persisting tags
+ * DataBase Entity for the tags dictionary, every distinct tag value is stored once and notes refer to it by id.
+ * tags are equal by value, which is unique
  */
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @Getter
 @Setter
 @Entity
-@Table(name = "TAG")
+@Table(name = "TAG_DICT", uniqueConstraints = @UniqueConstraint(name = "UK_TAG_DICT_VALUE", columnNames = "value"))
 public class TagEntity {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tag_seq")
+    @SequenceGenerator(name = "tag_seq", sequenceName = "TAG_SEQ", allocationSize = 50)
     public int id;
 
-    @Column(name = "value")
+    @EqualsAndHashCode.Include
+    @Column(name = "value", nullable = false)
     public String value;
 
-    @ManyToOne
-    @JoinColumn(name = "note_id")
-    public NoteEntity note;
-
     public TagEntity() {
     }
 
-    public TagEntity(String value, NoteEntity note) {
+    public TagEntity(String value) {
         this.value = value;
-        this.note = note;
-    }
-
-    public void setNote(NoteEntity note) {
-        this.note = note;
-
-        if(!note.getTags().contains(this))
-            note.addTag(this);
-
     }
 
-    public void deleteEntity(){
-        this.getNote().getTags().remove(this);
-        this.note = null;
+    public TagEntity(int id, String value) {
+        this.id = id;
+        this.value = value;
     }
 }
@@ -0,0 +1,28 @@
+package com.task.knime.repository;
+
+import com.task.knime.model.CacheInvalidationEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+import java.util.List;
+
+public interface CacheInvalidationRepository extends JpaRepository<CacheInvalidationEntity, Long> {
+
+    /**
+     * retrieves invalidations of the other instances created after the time
+     *
+     * @param since  creation time after which invalidations are retrieved
+     * @param origin id of the current instance, its own invalidations are skipped
+     * @return invalidations ordered by creation time
+     */
+    @Query("select invalidation from CacheInvalidationEntity invalidation where invalidation.createdAt > :since " +
+            "and invalidation.origin <> :origin order by invalidation.createdAt, invalidation.id")
+    List<CacheInvalidationEntity> findCreatedAfter(@Param("since") Date since, @Param("origin") String origin);
+
+    @Modifying
+    @Query("delete from CacheInvalidationEntity invalidation where invalidation.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Date before);
+}
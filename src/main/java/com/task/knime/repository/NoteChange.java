@@ -0,0 +1,13 @@
+package com.task.knime.repository;
+
+import java.util.Date;
+
+/**
+ * id of changed note with the time of its change
+ */
+public interface NoteChange {
+
+    int getId();
+
+    Date getChangedAt();
+}
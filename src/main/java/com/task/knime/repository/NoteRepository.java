@@ -1,7 +1,112 @@
 package com.task.knime.repository;
 
 import com.task.knime.model.NoteEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_PASS_DISTINCT_THROUGH;
 
 public interface NoteRepository extends JpaRepository<NoteEntity, Integer> {
+
+    /**
+     * retrieves notes of the notebook that have at least one of the {@code tagIds}, with all their tags fetched
+     *
+     * @param notebookId id of the notebook
+     * @param tagIds     dictionary ids of the tags to match
+     * @return matching notes
+     */
+    @Query("select distinct note from NoteEntity note left join fetch note.tags where note.notebook.id = :notebookId " +
+            "and note.id in (select tagged.id from NoteEntity tagged join tagged.tags tag where tag.id in :tagIds)")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    List<NoteEntity> findAllWithAnyTag(@Param("notebookId") int notebookId, @Param("tagIds") Collection<Integer> tagIds);
+
+    /**
+     * retrieves notes of the notebook that have every one of the {@code tagIds}, with all their tags fetched
+     *
+     * @param notebookId id of the notebook
+     * @param tagIds     distinct dictionary ids of the tags to match
+     * @param tagsCount  number of the distinct tags
+     * @return matching notes
+     */
+    @Query("select distinct note from NoteEntity note left join fetch note.tags where note.notebook.id = :notebookId " +
+            "and note.id in (select tagged.id from NoteEntity tagged join tagged.tags tag where tag.id in :tagIds " +
+            "group by tagged.id having count(tag.id) = :tagsCount)")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    List<NoteEntity> findAllWithAllTags(@Param("notebookId") int notebookId, @Param("tagIds") Collection<Integer> tagIds,
+                                        @Param("tagsCount") long tagsCount);
+
+    /**
+     * retrieves notes by ids with all their tags fetched
+     *
+     * @param ids of the notes
+     * @return found notes
+     */
+    @Query("select distinct note from NoteEntity note left join fetch note.tags where note.id in :ids")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    List<NoteEntity> findAllWithTagsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * retrieves ids of all notes of the notebook
+     *
+     * @param notebookId id of the notebook
+     * @return ids of the notes
+     */
+    @Query("select note.id from NoteEntity note where note.notebook.id = :notebookId")
+    List<Integer> findIdsByNotebookId(@Param("notebookId") int notebookId);
+
+    /**
+     * retrieves notes changed after the position, ordered by change time and id
+     *
+     * @param since    change time of the position
+     * @param afterId  id of the note of the position, notes changed at the same time are retrieved after it
+     * @param pageable maximal number of notes
+     * @return ids of the changed notes with their change time
+     */
+    @Query("select note.id as id, note.changedAt as changedAt from NoteEntity note where note.changedAt >= :since " +
+            "and (note.changedAt > :since or note.id > :afterId) order by note.changedAt, note.id")
+    List<NoteChange> findChangedAfter(@Param("since") Date since, @Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * counts notes of the notebook
+     *
+     * @param notebookId id of the notebook
+     * @return number of notes
+     */
+    @Query("select count(note.id) from NoteEntity note where note.notebook.id = :notebookId")
+    long countByNotebookId(@Param("notebookId") int notebookId);
+
+    /**
+     * streams all notes joined with their tags ordered by note id, so rows of the same note are consecutive.
+     * no entities are loaded, should be consumed inside transaction
+     *
+     * @return stream of note and tag rows
+     */
+    @Query("select note.id as noteId, note.notebook.id as notebookId, note.title as title, note.body as body, " +
+            "tag.value as tag, note.version as version from NoteEntity note left join note.tags tag " +
+            "order by note.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<NoteSearchRow> streamAllForSearch();
+
+    /**
+     * streams notes changed since the given time joined with their tags ordered by note id, so rows of the same
+     * note are consecutive. no entities are loaded, should be consumed inside transaction
+     *
+     * @param since change time from which notes are streamed
+     * @return stream of note and tag rows
+     */
+    @Query("select note.id as noteId, note.notebook.id as notebookId, note.title as title, note.body as body, " +
+            "tag.value as tag, note.version as version from NoteEntity note left join note.tags tag " +
+            "where note.changedAt >= :since order by note.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<NoteSearchRow> streamChangedForSearch(@Param("since") Date since);
 }
@@ -0,0 +1,19 @@
+package com.task.knime.repository;
+
+/**
+ * projection of note joined with one of its tags for the search index, tag is null for note without tags
+ */
+public interface NoteSearchRow {
+
+    int getNoteId();
+
+    int getNotebookId();
+
+    String getTitle();
+
+    String getBody();
+
+    String getTag();
+
+    long getVersion();
+}
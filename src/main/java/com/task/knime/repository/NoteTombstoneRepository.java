@@ -0,0 +1,40 @@
+package com.task.knime.repository;
+
+import com.task.knime.model.NoteTombstoneEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+import java.util.List;
+
+public interface NoteTombstoneRepository extends JpaRepository<NoteTombstoneEntity, Integer> {
+
+    /**
+     * retrieves notes deletions after the position, ordered by deletion time and id
+     *
+     * @param since   deletion time of the position
+     * @param afterId id of the tombstone of the position, deletions at the same time are retrieved after it
+     * @param pageable maximal number of deletions
+     * @return tombstones of the deleted notes
+     */
+    @Query("select tombstone from NoteTombstoneEntity tombstone where tombstone.deletedAt >= :since " +
+            "and (tombstone.deletedAt > :since or tombstone.id > :afterId) order by tombstone.deletedAt, tombstone.id")
+    List<NoteTombstoneEntity> findDeletedAfter(@Param("since") Date since, @Param("afterId") int afterId,
+                                               Pageable pageable);
+
+    /**
+     * retrieves ids of notes deleted since the given time
+     *
+     * @param since deletion time from which notes are retrieved
+     * @return ids of the deleted notes
+     */
+    @Query("select tombstone.noteId from NoteTombstoneEntity tombstone where tombstone.deletedAt >= :since")
+    List<Integer> findNoteIdsDeletedSince(@Param("since") Date since);
+
+    @Modifying
+    @Query("delete from NoteTombstoneEntity tombstone where tombstone.deletedAt < :before")
+    int deleteDeletedBefore(@Param("before") Date before);
+}
@@ -0,0 +1,28 @@
+package com.task.knime.repository;
+
+import java.util.Date;
+
+/**
+ * projection of notebook joined with one of its notes and one of the note tags, note and tag columns are null
+ * for notebook without notes and tag is null for note without tags
+ */
+public interface NotebookExportRow {
+
+    int getNotebookId();
+
+    String getNotebookName();
+
+    Integer getNoteId();
+
+    String getTitle();
+
+    String getBody();
+
+    Date getCreatedAt();
+
+    Date getLastModified();
+
+    Long getVersion();
+
+    String getTag();
+}
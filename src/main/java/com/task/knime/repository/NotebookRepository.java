@@ -1,9 +1,71 @@
 package com.task.knime.repository;
 
+import com.task.knime.dto.NotebookSummaryDto;
 import com.task.knime.model.NotebookEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_PASS_DISTINCT_THROUGH;
+
 @Repository
 public interface NotebookRepository extends JpaRepository<NotebookEntity, Integer> {
+
+    /**
+     * keyset paginated notebook summaries, notebooks with id greater than {@code afterId} ordered by id
+     * with the number of notes of each one, computed by single aggregate query without loading notes.
+     *
+     * @param afterId  id of the last notebook of the previous page, 0 for the first page
+     * @param pageable page size limit
+     * @return notebook summaries
+     */
+    @Query("select new com.task.knime.dto.NotebookSummaryDto(n.id, n.name, count(note.id)) from NotebookEntity n " +
+            "left join n.notes note where n.id > :afterId group by n.id, n.name order by n.id")
+    List<NotebookSummaryDto> findNotebookSummaries(@Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * retrieves notebook together with all its notes and their tags by single query,
+     * so transforming it to dto does not trigger lazy loading per note.
+     *
+     * @param id of the notebook
+     * @return notebook with initialized notes and tags
+     */
+    @Query("select distinct n from NotebookEntity n left join fetch n.notes note left join fetch note.tags " +
+            "where n.id = :id")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    Optional<NotebookEntity> findWithNotesAndTagsById(@Param("id") int id);
+
+    /**
+     * retrieves notebooks together with all their notes and notes tags by single query.
+     *
+     * @param ids of the notebooks
+     * @return notebooks with initialized notes and tags
+     */
+    @Query("select distinct n from NotebookEntity n left join fetch n.notes note left join fetch note.tags " +
+            "where n.id in :ids")
+    @QueryHints(@QueryHint(name = HINT_PASS_DISTINCT_THROUGH, value = "false"))
+    List<NotebookEntity> findAllWithNotesAndTagsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * streams all notebooks as flat rows of notebook, note and tag columns ordered by notebook and note id,
+     * so rows of the same notebook are consecutive. No entities are loaded, should be consumed inside transaction
+     *
+     * @return stream of export rows
+     */
+    @Query("select n.id as notebookId, n.name as notebookName, note.id as noteId, note.title as title, " +
+            "note.body as body, note.createdAt as createdAt, note.lastModified as lastModified, " +
+            "note.version as version, tag.value as tag from NotebookEntity n left join n.notes note " +
+            "left join note.tags tag order by n.id, note.id")
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<NotebookExportRow> streamAllForExport();
 }
@@ -0,0 +1,13 @@
+package com.task.knime.repository;
+
+/**
+ * projection of persisted tag with the note and the notebook it belongs to
+ */
+public interface TagIndexEntry {
+
+    int getNotebookId();
+
+    int getNoteId();
+
+    String getValue();
+}
@@ -1,23 +1,59 @@
 package com.task.knime.repository;
 
+import com.task.knime.dto.TagCountDto;
 import com.task.knime.model.TagEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface TagRepository extends JpaRepository<TagEntity, Integer> {
 
     /**
-     * Delete all tags with ids specified in {@code ids} parameter
+     * retrieves dictionary tags with the given values
      *
-     * @param ids List of tags ids
+     * @param values tag values
+     * @return tags of the values present in the dictionary
      */
-    @Modifying
-    @Query(value = "delete from TAG s where s.id in ?1", nativeQuery = true)
-    @Transactional
-    void deleteTagsWithIds(List<Integer> ids);
+    List<TagEntity> findAllByValueIn(Collection<String> values);
+
+    Optional<TagEntity> findByValue(String value);
+
+    /**
+     * streams all tags of the notes with ids of their notes and notebooks, for building tags index.
+     * note without tags is streamed once with null value. should be consumed inside transaction
+     *
+     * @return stream of tag entries
+     */
+    @Query("select note.notebook.id as notebookId, note.id as noteId, tag.value as value from NoteEntity note " +
+            "left join note.tags tag")
+    Stream<TagIndexEntry> streamAllTagIndexEntries();
+
+    /**
+     * retrieves tags of the notebook notes with number of notes having each tag, the most used first
+     *
+     * @param notebookId id of the notebook
+     * @param pageable   number of tags to retrieve
+     * @return tags with their notes count
+     */
+    @Query("select new com.task.knime.dto.TagCountDto(tag.value, count(note.id)) from NoteEntity note " +
+            "join note.tags tag where note.notebook.id = :notebookId " +
+            "group by tag.id, tag.value order by count(note.id) desc, tag.value")
+    List<TagCountDto> findTopTags(@Param("notebookId") int notebookId, Pageable pageable);
+
+    /**
+     * retrieves tags of all notes with number of notes having each tag, the most used first
+     *
+     * @param pageable number of tags to retrieve
+     * @return tags with their notes count
+     */
+    @Query("select new com.task.knime.dto.TagCountDto(tag.value, count(note.id)) from NoteEntity note " +
+            "join note.tags tag group by tag.id, tag.value order by count(note.id) desc, tag.value")
+    List<TagCountDto> findTopTags(Pageable pageable);
 
 }
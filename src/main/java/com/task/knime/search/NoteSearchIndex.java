@@ -0,0 +1,392 @@
+package com.task.knime.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.task.knime.cache.AfterCommit;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NoteSearchHitDto;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteSearchRow;
+import com.task.knime.repository.NoteTombstoneRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * embedded lucene full text index over notes title and body, with notebook id and tags for filtering.
+ * kept in memory unless index path is configured. updated incrementally by note write paths,
+ * changes become visible to searches through near real time reopen of the index reader,
+ * changes done inside transaction are applied after its commit. documents keep the version of their note, and
+ * versions of notes indexed and deleted within the write timeout are remembered, so change committed earlier but
+ * applied later than newer change or deletion of the same note does not bring back its older document.
+ * persistent index keeps with every commit watermark of note change time up to which all changes were indexed,
+ * on start notes changed or deleted since it are indexed again, so changes not committed to the index before
+ * shutdown or crash are not lost.
+ * ranking is lucene BM25 where title matches weigh more than body matches.
+ */
+@Slf4j
+@Component
+public class NoteSearchIndex {
+
+    static final String ID = "id";
+    static final String NOTEBOOK_ID = "notebookId";
+    static final String TITLE = "title";
+    static final String BODY = "body";
+    static final String TAG = "tag";
+    static final String VERSION = "version";
+    static final String WATERMARK = "changedAt";
+
+    private static final long DELETED = Long.MAX_VALUE;
+
+    private static final Map<String, Float> FIELD_WEIGHTS = Map.of(TITLE, 2f, BODY, 1f);
+
+    @Value("${search.index.path}")
+    String indexPath;
+
+    @Value("${search.index.commit-interval}")
+    int commitIntervalSeconds;
+
+    @Value("${note.write.timeout-seconds}")
+    int writeTimeoutSeconds;
+
+    @Value("${sync.changes.clock-skew-millis}")
+    long clockSkewMillis;
+
+    @Value("${sync.changes.retention-days}")
+    int changesRetentionDays;
+
+    @Autowired
+    NoteRepository noteRepository;
+
+    @Autowired
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    private Directory directory;
+    private Analyzer analyzer;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ScheduledExecutorService committer;
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    /**
+     * versions of notes recently indexed by note id, DELETED for notes recently deleted.
+     * change of note is applied under its entry, changes older than the write timeout are compared with the version
+     * kept in the document instead
+     */
+    private Cache<Integer, Long> indexedVersions;
+
+    /**
+     * watermark of the last commit when the index was opened, null if the index is built from scratch.
+     * null also for watermark older than the changes retention
+     */
+    private Long openedWatermark;
+
+    @PostConstruct
+    private void open() throws IOException {
+        directory = indexPath == null || indexPath.isBlank() ? new ByteBuffersDirectory() : FSDirectory.open(Paths.get(indexPath));
+        analyzer = new StandardAnalyzer();
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+        indexedVersions = Caffeine.newBuilder()
+                .expireAfterWrite(writeTimeoutSeconds, TimeUnit.SECONDS)
+                .build();
+
+        openedWatermark = committedWatermark();
+        // tombstones older than the changes retention are purged, deletions since such watermark can not be reconciled
+        if (openedWatermark != null
+                && openedWatermark < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(changesRetentionDays))
+            openedWatermark = null;
+        // index without watermark can not be reconciled, it is cleared before any note is written to it
+        if (openedWatermark == null && writer.getDocStats().numDocs > 0)
+            writer.deleteAll();
+    }
+
+    /**
+     * indexes all persisted notes if index is built from scratch, e.g. in memory index or new index path.
+     * otherwise indexes again notes changed and deletes notes deleted since the watermark of its last commit.
+     * notes written meanwhile are not overwritten by their older versions streamed from the database.
+     * index is committed periodically only after it is built, so its watermark never covers notes not indexed yet
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        if (openedWatermark != null) {
+            reconcile(new Date(openedWatermark));
+        } else {
+            int indexed;
+            try (Stream<NoteSearchRow> rows = noteRepository.streamAllForSearch()) {
+                indexed = indexRows(rows);
+            }
+            commit();
+            log.info("note search index built with {} notes", indexed);
+        }
+
+        if (commitIntervalSeconds > 0 && committer == null) {
+            committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "note-search-index-committer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            committer.scheduleWithFixedDelay(this::commit, commitIntervalSeconds, commitIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void index(NoteDto note) {
+        AfterCommit.run(() -> write(note.getId(), note.getVersion(), true, () -> toDocument(note.getId(),
+                note.getNotebookId(), note.getTitle(), note.getBody(), note.getTags(), note.getVersion())));
+    }
+
+    public void indexAll(Collection<NoteDto> notes) {
+        notes.forEach(this::index);
+    }
+
+    public void delete(int noteId) {
+        AfterCommit.run(() -> remove(noteId));
+    }
+
+    /**
+     * deletes documents of the notebook notes
+     *
+     * @param notebookId deleted notebook
+     * @param noteIds    notes of the notebook, remembered as deleted
+     */
+    public void deleteNotebook(int notebookId, Collection<Integer> noteIds) {
+        AfterCommit.run(() -> {
+            noteIds.forEach(noteId -> indexedVersions.put(noteId, DELETED));
+            try {
+                writer.deleteDocuments(IntPoint.newExactQuery(NOTEBOOK_ID, notebookId));
+                changed.set(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * ranked full text search over notes title and body
+     *
+     * @param query      text query, supports quoted phrases, +/- operators and * prefix
+     * @param notebookId optional notebook to search in
+     * @param tags       optional tags that matched notes should all have
+     * @param limit      maximal number of results
+     * @return hits ordered by descending score
+     */
+    public List<NoteSearchHitDto> search(String query, Integer notebookId, Collection<String> tags, int limit) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(new SimpleQueryParser(analyzer, FIELD_WEIGHTS).parse(query), BooleanClause.Occur.MUST);
+        if (notebookId != null)
+            builder.add(IntPoint.newExactQuery(NOTEBOOK_ID, notebookId), BooleanClause.Occur.FILTER);
+        if (tags != null)
+            tags.forEach(tag -> builder.add(new TermQuery(new Term(TAG, tag)), BooleanClause.Occur.FILTER));
+
+        try {
+            if (changed.compareAndSet(true, false))
+                searcherManager.maybeRefreshBlocking();
+
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs topDocs = searcher.search(builder.build(), limit);
+                List<NoteSearchHitDto> hits = new ArrayList<>(topDocs.scoreDocs.length);
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    Document document = searcher.doc(scoreDoc.doc);
+                    hits.add(NoteSearchHitDto.builder()
+                            .noteId(Integer.parseInt(document.get(ID)))
+                            .notebookId(document.getField(NOTEBOOK_ID).numericValue().intValue())
+                            .title(document.get(TITLE))
+                            .score(scoreDoc.score).build());
+                }
+                return hits;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    private void close() throws IOException {
+        if (committer != null)
+            committer.shutdownNow();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * commits the index with watermark of note change time up to which all changes are in this commit.
+     * note changed at given time is committed to the database within write timeout, and its change is applied to the
+     * index right after, so the watermark is commit start rewound by write timeout and clock skew between instances
+     */
+    private synchronized void commit() {
+        long watermark = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(writeTimeoutSeconds) - clockSkewMillis;
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.setLiveCommitData(Map.of(WATERMARK, String.valueOf(watermark)).entrySet());
+                writer.commit();
+            }
+        } catch (IOException e) {
+            log.error("failed to commit note search index", e);
+        }
+    }
+
+    private Long committedWatermark() {
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null)
+            for (Map.Entry<String, String> entry : commitData)
+                if (WATERMARK.equals(entry.getKey()))
+                    return Long.valueOf(entry.getValue());
+        return null;
+    }
+
+    private void reconcile(Date since) {
+        int indexed;
+        try (Stream<NoteSearchRow> rows = noteRepository.streamChangedForSearch(since)) {
+            indexed = indexRows(rows);
+        }
+        List<Integer> deletedIds = noteTombstoneRepository.findNoteIdsDeletedSince(since);
+        deletedIds.forEach(this::remove);
+        commit();
+        log.info("note search index reconciled with {} notes changed and {} deleted since {}", indexed,
+                deletedIds.size(), since);
+    }
+
+    /**
+     * indexes notes of rows ordered by note id, one row per note tag
+     *
+     * @return number of indexed notes
+     */
+    private int indexRows(Stream<NoteSearchRow> rows) {
+        AtomicInteger indexed = new AtomicInteger();
+        List<NoteSearchRow> noteRows = new ArrayList<>();
+        rows.forEach(row -> {
+            if (!noteRows.isEmpty() && noteRows.get(0).getNoteId() != row.getNoteId()) {
+                writeDocument(noteRows);
+                noteRows.clear();
+                indexed.incrementAndGet();
+            }
+            noteRows.add(row);
+        });
+        if (!noteRows.isEmpty()) {
+            writeDocument(noteRows);
+            indexed.incrementAndGet();
+        }
+        return indexed.get();
+    }
+
+    /**
+     * streamed note is not remembered, notes written meanwhile are remembered by their own writes
+     */
+    private void writeDocument(List<NoteSearchRow> noteRows) {
+        NoteSearchRow note = noteRows.get(0);
+        List<String> tags = new ArrayList<>(noteRows.size());
+        noteRows.forEach(row -> {
+            if (row.getTag() != null)
+                tags.add(row.getTag());
+        });
+        write(note.getNoteId(), note.getVersion(), false, () -> toDocument(note.getNoteId(), note.getNotebookId(),
+                note.getTitle(), note.getBody(), tags, note.getVersion()));
+    }
+
+    /**
+     * replaces document of the note unless newer version of the note is indexed or the note is deleted
+     *
+     * @param remember whether version of the note is remembered and compared with version kept in its document
+     */
+    private void write(int noteId, long version, boolean remember, Supplier<Document> document) {
+        indexedVersions.asMap().compute(noteId, (id, indexed) -> {
+            if (indexed == null && remember)
+                indexed = documentVersion(id);
+            if (indexed != null && indexed > version)
+                return indexed;
+            try {
+                writer.updateDocument(new Term(ID, String.valueOf(id)), document.get());
+                changed.set(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return remember || indexed != null ? Long.valueOf(version) : null;
+        });
+    }
+
+    private void remove(int noteId) {
+        indexedVersions.asMap().compute(noteId, (id, indexed) -> {
+            try {
+                writer.deleteDocuments(new Term(ID, String.valueOf(id)));
+                changed.set(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return DELETED;
+        });
+    }
+
+    /**
+     * version kept in the document of the note as seen by the current searcher, which is refreshed by searches
+     *
+     * @return version of the note, null if the note is not indexed
+     */
+    private Long documentVersion(int noteId) {
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs topDocs = searcher.search(new TermQuery(new Term(ID, String.valueOf(noteId))), 1);
+                if (topDocs.scoreDocs.length == 0)
+                    return null;
+                IndexableField version = searcher.doc(topDocs.scoreDocs[0].doc).getField(VERSION);
+                return version == null ? null : version.numericValue().longValue();
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Document toDocument(int id, int notebookId, String title, String body, Collection<String> tags,
+                                       long version) {
+        Document document = new Document();
+        document.add(new StringField(ID, String.valueOf(id), Field.Store.YES));
+        document.add(new IntPoint(NOTEBOOK_ID, notebookId));
+        document.add(new StoredField(NOTEBOOK_ID, notebookId));
+        document.add(new StoredField(VERSION, version));
+        if (title != null)
+            document.add(new TextField(TITLE, title, Field.Store.YES));
+        if (body != null)
+            document.add(new TextField(BODY, body, Field.Store.NO));
+        if (tags != null)
+            tags.forEach(tag -> document.add(new StringField(TAG, tag, Field.Store.NO)));
+        return document;
+    }
+}
@@ -0,0 +1,47 @@
+package com.task.knime.service;
+
+import com.task.knime.exception.IllegalFieldException;
+
+/**
+ * position in the notes changes and in the notes deletions, each as change time and id of the last row read.
+ * passed to clients as since token, plain epoch millis token is position before all changes at that time
+ */
+final class ChangesCursor {
+
+    private static final String SEPARATOR = ".";
+
+    final long changedAt;
+    final int changedId;
+    final long deletedAt;
+    final int deletedId;
+
+    ChangesCursor(long changedAt, int changedId, long deletedAt, int deletedId) {
+        this.changedAt = changedAt;
+        this.changedId = changedId;
+        this.deletedAt = deletedAt;
+        this.deletedId = deletedId;
+    }
+
+    static ChangesCursor parse(String token) {
+        if (token == null || token.isBlank())
+            throw new IllegalFieldException("please provide since");
+        try {
+            String[] parts = token.split("\\.");
+            if (parts.length == 1) {
+                long since = Long.parseLong(parts[0]);
+                return new ChangesCursor(since, 0, since, 0);
+            }
+            if (parts.length == 4)
+                return new ChangesCursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]),
+                        Long.parseLong(parts[2]), Integer.parseInt(parts[3]));
+        } catch (NumberFormatException e) {
+            // reported below as invalid token
+        }
+        throw new IllegalFieldException("invalid since token: " + token);
+    }
+
+    @Override
+    public String toString() {
+        return changedAt + SEPARATOR + changedId + SEPARATOR + deletedAt + SEPARATOR + deletedId;
+    }
+}
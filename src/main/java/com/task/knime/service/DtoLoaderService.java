@@ -0,0 +1,50 @@
+package com.task.knime.service;
+
+import com.task.knime.cache.DtoLoader;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NotebookRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * loads notes and notebooks for the cache, each load in single query with tags fetched.
+ * runs in its own read only transaction since cache refresh runs outside of the request thread
+ */
+@Service
+public class DtoLoaderService implements DtoLoader {
+
+    @Autowired
+    NotebookRepository notebookRepository;
+
+    @Autowired
+    NoteRepository noteRepository;
+
+    @Override
+    @Transactional(readOnly = true)
+    public NoteDto loadNote(int id) {
+        return noteRepository.findAllWithTagsByIdIn(List.of(id)).stream()
+                .findFirst().map(ServiceUtils::transformFromNoteEntityToDto).orElse(null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public NotebookDto loadNotebook(int id) {
+        return notebookRepository.findWithNotesAndTagsById(id).map(ServiceUtils::transformNotebookEntityToDto).orElse(null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, NotebookDto> loadNotebooks(Collection<Integer> ids) {
+        return notebookRepository.findAllWithNotesAndTagsByIdIn(ids).stream()
+                .map(ServiceUtils::transformNotebookEntityToDto)
+                .collect(Collectors.toMap(NotebookDto::getId, notebook -> notebook));
+    }
+}
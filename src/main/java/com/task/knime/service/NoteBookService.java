@@ -1,19 +1,45 @@
 package com.task.knime.service;
 
 import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.ResourceVersion;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.ChangeType;
+import com.task.knime.dto.ChangesDto;
+import com.task.knime.dto.DeletedNoteDto;
 import com.task.knime.dto.NoteDto;
 import com.task.knime.dto.NotebookDto;
+import com.task.knime.dto.NotebookPageDto;
+import com.task.knime.dto.NotebookSummaryDto;
+import com.task.knime.dto.StatsDto;
+import com.task.knime.dto.TagCountDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.exception.ChangesExpiredException;
+import com.task.knime.exception.IllegalFieldException;
 import com.task.knime.exception.ResourceNotFoundException;
+import com.task.knime.model.NoteTombstoneEntity;
 import com.task.knime.model.NotebookEntity;
+import com.task.knime.repository.NoteChange;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteTombstoneRepository;
 import com.task.knime.repository.NotebookRepository;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.search.NoteSearchIndex;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.task.knime.service.ServiceUtils.transformNotebookEntityToDto;
+import static com.task.knime.service.ServiceUtils.transformFromNotesEntityToDto;
 
 @Service
 @Slf4j
@@ -22,76 +48,175 @@ public class NoteBookService {
     @Autowired
     NotebookRepository notebookRepository;
 
+    @Autowired
+    NoteRepository noteRepository;
+
     @Autowired
     CacheManager cacheManager;
 
+    @Autowired
+    TagIndex tagIndex;
+
+    @Autowired
+    TagDictionary tagDictionary;
+
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    @Autowired
+    NoteSearchIndex noteSearchIndex;
+
+    @Autowired
+    ChangeEventBus changeEventBus;
+
+    @Value("${notebook.page.size}")
+    int defaultPageSize;
+
+    @Value("${notebook.page.max-size}")
+    int maxPageSize;
+
+    @Value("${stats.top-tags.max-size}")
+    int maxTopTags;
+
+    @Value("${note.write.timeout-seconds}")
+    int writeTimeoutSeconds;
+
+    @Value("${sync.changes.clock-skew-millis}")
+    long clockSkewMillis;
+
+    @Value("${sync.changes.retention-days}")
+    int changesRetentionDays;
+
     /**
      * creates notebook with no notes
      * @param name of the notebook
      * @return created notebook dto
      */
+    @Timed("service.notebook")
+    @Transactional
     public NotebookDto createNotebook(String name) {
         NotebookEntity noteBook = notebookRepository.save(new NotebookEntity(name));
         NotebookDto noteBookDTo = NotebookDto.builder().name(name).id(noteBook.getId()).build();
         cacheManager.addNoteBookDto(noteBookDTo);
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, noteBook.getId());
         return noteBookDTo;
 
     }
 
     /**
-     *  retrieves notebook from cache if exist in cache otherwise takes it from database
+     *  retrieves notebook from cache, loaded from database if not cached.
+     *  concurrent requests of not cached notebook share single load
      * @param id of the notebook
      * @return retrieved notebook dto
      * @throws ResourceNotFoundException if there is no such notebook
      */
     //todo perhaps add here transaction isolation
+    @Timed("service.notebook")
     public NotebookDto getNotebook(int id) {
 
-        NotebookDto noteBookFromCache = cacheManager.getNoteBookFromCache(id);
-        if (noteBookFromCache == null) {
-            NotebookEntity noteBook = notebookRepository.findById(id).orElseThrow(() ->
-                    new ResourceNotFoundException("notebook with id " + id + " does not exist"));
-            NotebookDto notebookDto = transformNotebookEntityToDto(noteBook);
-            cacheManager.addNoteBookDto(notebookDto);
-            return notebookDto;
-        }
-        return noteBookFromCache;
+        NotebookDto notebookDto = cacheManager.getNoteBook(id);
+        if (notebookDto == null)
+            throw new ResourceNotFoundException("notebook with id " + id + " does not exist");
+        return notebookDto;
 
     }
 
     /**
-     * get notebooks by ids
+     * retrieves version of the notebook for conditional requests, taken from cache without assembling the notebook
+     * @param id of the notebook
+     * @return notebook etag and last modified time
+     * @throws ResourceNotFoundException if there is no such notebook
+     */
+    @Timed("service.notebook")
+    public ResourceVersion getNotebookVersion(int id) {
+        ResourceVersion version = cacheManager.getNoteBookVersion(id);
+        if (version == null)
+            throw new ResourceNotFoundException("notebook with id " + id + " does not exist");
+        return version;
+    }
+
+    /**
+     * get notebooks by ids, cached notebooks are taken from cache and the missing ones are loaded in single query
      * @param ids of the notebooks to be retrieved
-     * @return list of notebooks
+     * @return list of notebooks in order of the ids
      */
+    @Timed("service.notebook")
     public List<NotebookDto> getNotebooks(List<Integer> ids) {
-        return notebookRepository.findAllById(ids).stream().map(ServiceUtils::transformNotebookEntityToDto).collect(Collectors.toList());
+        return cacheManager.getNoteBooks(ids);
 
     }
 
     /**
-     * retrieves all notes that matches tag value of specific notebook
+     * retrieves notes of specific notebook that matches tags values. matching note ids are taken from the tags index
+     * and the notes from the notes cache, falls back to filtering by the database while index is not built.
+     * only the matching notes are loaded
      * @param notebookId id of the notebook
-     * @param tag to be filtered according to
+     * @param tags to be filtered according to
+     * @param match whether notes should have any of the tags or all of them
      * @return notebook dto with relevant notes
+     * @throws ResourceNotFoundException if there is no such notebook
+     * @throws IllegalFieldException if no tags provided
      */
-    public NotebookDto getNotebooksByTag(int notebookId, String tag) {
+    @Timed("service.notebook")
+    @Transactional(readOnly = true)
+    public NotebookDto getNotebooksByTag(int notebookId, Collection<String> tags, TagMatch match) {
+        if (tags == null || tags.isEmpty())
+            throw new IllegalFieldException("please provide tags");
 
-        NotebookDto noteBookFromCache = cacheManager.getNoteBookFromCache(notebookId);
+        String nameFromCache = cacheManager.getNoteBookNameFromCache(notebookId);
+        String name = nameFromCache != null ? nameFromCache :
+                notebookRepository.findById(notebookId).orElseThrow(() ->
+                        new ResourceNotFoundException("notebook with id " + notebookId + " does not exist")).getName();
 
-        if (noteBookFromCache == null) {
-            NotebookEntity noteBook = notebookRepository.findById(notebookId).orElseThrow(() ->
-                    new ResourceNotFoundException("notebook with id " + notebookId + " does not exist"));
-            noteBookFromCache = transformNotebookEntityToDto(noteBook);
-            cacheManager.addNoteBookDto(transformNotebookEntityToDto(noteBook));
+        Set<String> distinctTags = new HashSet<>(tags);
+        Optional<RoaringBitmap> indexedNoteIds = tagIndex.findNoteIds(notebookId, distinctTags, match);
+        List<NoteDto> filteredNotes;
+        if (indexedNoteIds.isPresent()) {
+            filteredNotes = getNotes(indexedNoteIds.get());
+        } else {
+            filteredNotes = getNotesByTagIds(notebookId, tagDictionary.findIds(distinctTags), distinctTags.size(), match);
         }
+        return NotebookDto.builder().name(name).notes(filteredNotes).id(notebookId).build();
 
+    }
+
+    private List<NoteDto> getNotesByTagIds(int notebookId, Map<String, Integer> tagIds, int tagsCount, TagMatch match) {
+        // tag missing from the dictionary is not on any note
+        if (tagIds.isEmpty() || match == TagMatch.ALL && tagIds.size() < tagsCount)
+            return new ArrayList<>();
+        return transformFromNotesEntityToDto(match == TagMatch.ALL ?
+                noteRepository.findAllWithAllTags(notebookId, tagIds.values(), tagsCount) :
+                noteRepository.findAllWithAnyTag(notebookId, tagIds.values()));
+    }
 
-        List<NoteDto> filteredNotes = noteBookFromCache.getNotes().stream()
-                .filter(note -> note.getTags().contains(tag))
-                .collect(Collectors.toList());
-        return NotebookDto.builder().name(noteBookFromCache.getName()).notes(filteredNotes).id(noteBookFromCache.getId()).build();
+    private List<NoteDto> getNotes(RoaringBitmap noteIds) {
+        Map<Integer, NoteDto> notesById = new HashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        noteIds.forEach((int noteId) -> {
+            NoteDto noteFromCache = cacheManager.getNoteFromCache(noteId);
+            if (noteFromCache != null)
+                notesById.put(noteId, noteFromCache);
+            else
+                missingIds.add(noteId);
+        });
 
+        if (!missingIds.isEmpty()) {
+            transformFromNotesEntityToDto(noteRepository.findAllWithTagsByIdIn(missingIds)).forEach(noteDto -> {
+                cacheManager.cacheLoadedNote(noteDto);
+                notesById.put(noteDto.getId(), noteDto);
+            });
+        }
+
+        List<NoteDto> notes = new ArrayList<>(notesById.size());
+        noteIds.forEach((int noteId) -> {
+            NoteDto noteDto = notesById.get(noteId);
+            if (noteDto != null)
+                notes.add(noteDto);
+        });
+        return notes;
     }
 
     /**
@@ -100,10 +225,19 @@ public class NoteBookService {
      * @return id of the deleted notebook
      * @throws ResourceNotFoundException if there is no such notebook
      */
+    @Timed("service.notebook")
+    @Transactional(timeoutString = "${note.write.timeout-seconds}")
     public int deleteNoteBookById(int id) {
         if (notebookRepository.existsById(id)) {
-            cacheManager.removeNoteBookFromCache(id);
+            List<Integer> noteIds = noteRepository.findIdsByNotebookId(id);
+            cacheManager.removeNoteBookFromCache(id, noteIds);
             notebookRepository.deleteById(id);
+            Date deletedAt = new Date();
+            noteTombstoneRepository.saveAll(noteIds.stream().map(noteId -> new NoteTombstoneEntity(noteId, id, deletedAt))
+                    .collect(Collectors.toList()));
+            tagIndex.removeNotebook(id);
+            noteSearchIndex.deleteNotebook(id, noteIds);
+            changeEventBus.publishNotebook(ChangeType.NOTEBOOK_DELETED, id);
             return id;
         }
 
@@ -111,12 +245,138 @@ public class NoteBookService {
     }
 
     /**
-     * retrieves all notebooks
-     * @return List all existed notebooks
+     * retrieves page of notebooks summaries (id, name and number of notes) ordered by id.
+     * notes are loaded only if includeNotes requested
+     * @param afterId id of the last notebook of the previous page, 0 for the first page
+     * @param size page size, default page size is used if not provided, limited by max page size
+     * @param includeNotes whether to load notes of the notebooks in the page
+     * @return page of notebook summaries with cursor of the next page
+     */
+    @Timed("service.notebook")
+    public NotebookPageDto getNotebooks(int afterId, Integer size, boolean includeNotes) {
+        int pageSize = size == null || size <= 0 ? defaultPageSize : Math.min(size, maxPageSize);
+        List<NotebookSummaryDto> summaries = notebookRepository.findNotebookSummaries(afterId, PageRequest.of(0, pageSize));
+
+        if (includeNotes && !summaries.isEmpty()) {
+            List<Integer> ids = summaries.stream().map(NotebookSummaryDto::getId).collect(Collectors.toList());
+            Map<Integer, List<NoteDto>> notesByNotebookId = getNotebooks(ids).stream()
+                    .collect(Collectors.toMap(NotebookDto::getId, NotebookDto::getNotes));
+            summaries.forEach(summary -> summary.setNotes(notesByNotebookId.get(summary.getId())));
+        }
+
+        Integer nextAfterId = summaries.size() < pageSize ? null : summaries.get(summaries.size() - 1).getId();
+        return NotebookPageDto.builder().notebooks(summaries).nextAfterId(nextAfterId).build();
+    }
+
+    /**
+     * retrieves number of notes and the most used tags of the notebook, or of all notebooks if no notebook given.
+     * counts are taken from the tags index that is kept current by the note write paths, so they do not depend
+     * on the number of notes. falls back to counting in the database while index is not built
+     * @param notebookId id of the notebook, null for statistics of all notebooks
+     * @param top number of tags to retrieve, limited by max top tags
+     * @return notes count and top tags
+     * @throws ResourceNotFoundException if there is no such notebook
      */
-    public List<NotebookDto> getNotebooks() {
-        return notebookRepository.findAll().stream().map(ServiceUtils::transformNotebookEntityToDto)
-                .collect(Collectors.toList());
+    @Timed("service.notebook")
+    @Transactional(readOnly = true)
+    public StatsDto getStats(Integer notebookId, int top) {
+        int limit = Math.max(1, Math.min(top, maxTopTags));
+        if (notebookId == null) {
+            return StatsDto.builder()
+                    .noteCount(tagIndex.countNotes().orElseGet(noteRepository::count))
+                    .topTags(tagIndex.findTopTags(limit).orElseGet(() ->
+                            tagRepository.findTopTags(PageRequest.of(0, limit))))
+                    .build();
+        }
+
+        if (cacheManager.getNoteBookNameFromCache(notebookId) == null && !notebookRepository.existsById(notebookId))
+            throw new ResourceNotFoundException("notebook with id " + notebookId + " does not exist");
+        List<TagCountDto> topTags = tagIndex.findTopTags(notebookId, limit).orElseGet(() ->
+                tagRepository.findTopTags(notebookId, PageRequest.of(0, limit)));
+        return StatsDto.builder()
+                .notebookId(notebookId)
+                .noteCount(tagIndex.countNotes(notebookId).orElseGet(() -> noteRepository.countByNotebookId(notebookId)))
+                .topTags(topTags)
+                .build();
+    }
+
+    /**
+     * retrieves notes created, modified or deleted after the since token, each ordered by time of the change.
+     * time of the change is taken from the clock of the writing instance before its commit, so changes of
+     * transactions committed after the read may have earlier time. once all the changes are read the returned token
+     * is moved back by the note write timeout, which bounds the commit delay of every write, and by the allowed
+     * clock skew between the instances, and such changes are returned by the next request. changes may be returned
+     * more than once, they are not skipped as long as instance clocks differ by less than the allowed skew.
+     * tombstones of deleted notes are kept for the changes retention, tokens older than it are rejected. since=0
+     * starts sync from scratch, no deletions are returned as there are no notes to delete yet
+     * @param since token returned by previous request, or epoch millis for changes since that time
+     * @param size maximal number of changed notes and of deleted notes, default page size is used if not provided,
+     *             limited by max page size
+     * @return changed and deleted notes with token for the following changes
+     * @throws IllegalFieldException if since token is not valid
+     * @throws ChangesExpiredException if deletions since the token are no longer kept
+     */
+    @Timed("service.notebook")
+    @Transactional(readOnly = true)
+    public ChangesDto getChanges(String since, Integer size) {
+        ChangesCursor cursor = ChangesCursor.parse(since);
+        int pageSize = size == null || size <= 0 ? defaultPageSize : Math.min(size, maxPageSize);
+        long now = System.currentTimeMillis();
+        long overlapStart = now - TimeUnit.SECONDS.toMillis(writeTimeoutSeconds) - clockSkewMillis;
+        if (cursor.deletedAt > 0 && cursor.deletedAt < now - TimeUnit.DAYS.toMillis(changesRetentionDays))
+            throw new ChangesExpiredException("deletions since " + since + " are no longer kept, sync again from since=0");
+
+        List<NoteChange> changes = noteRepository.findChangedAfter(new Date(cursor.changedAt), cursor.changedId,
+                PageRequest.of(0, pageSize + 1));
+        List<NoteTombstoneEntity> tombstones = cursor.deletedAt == 0 ? new ArrayList<>() :
+                noteTombstoneRepository.findDeletedAfter(new Date(cursor.deletedAt), cursor.deletedId,
+                        PageRequest.of(0, pageSize + 1));
+        boolean moreChanges = changes.size() > pageSize;
+        boolean moreDeletions = tombstones.size() > pageSize;
+        changes = changes.subList(0, Math.min(changes.size(), pageSize));
+        tombstones = tombstones.subList(0, Math.min(tombstones.size(), pageSize));
+
+        long changedAt = cursor.changedAt;
+        int changedId = cursor.changedId;
+        if (!changes.isEmpty()) {
+            NoteChange last = changes.get(changes.size() - 1);
+            changedAt = last.getChangedAt().getTime();
+            changedId = last.getId();
+        }
+        if (!moreChanges && changedAt > overlapStart) {
+            changedAt = overlapStart;
+            changedId = 0;
+        }
+        long deletedAt = cursor.deletedAt;
+        int deletedId = cursor.deletedId;
+        if (!tombstones.isEmpty()) {
+            NoteTombstoneEntity last = tombstones.get(tombstones.size() - 1);
+            deletedAt = last.getDeletedAt().getTime();
+            deletedId = last.getId();
+        }
+        // all deletions were read, token moves to the overlap start so it stays within the retention
+        if (!moreDeletions) {
+            deletedAt = overlapStart;
+            deletedId = 0;
+        }
+
+        return ChangesDto.builder()
+                .notes(getChangedNotes(changes))
+                .deleted(tombstones.stream().map(tombstone -> DeletedNoteDto.builder().noteId(tombstone.getNoteId())
+                        .notebookId(tombstone.getNotebookId()).deletedAt(tombstone.getDeletedAt()).build())
+                        .collect(Collectors.toList()))
+                .nextSince(new ChangesCursor(changedAt, changedId, deletedAt, deletedId).toString())
+                .hasMore(moreChanges || moreDeletions)
+                .build();
+    }
 
+    private List<NoteDto> getChangedNotes(List<NoteChange> changes) {
+        if (changes.isEmpty())
+            return new ArrayList<>();
+        List<Integer> ids = changes.stream().map(NoteChange::getId).collect(Collectors.toList());
+        Map<Integer, NoteDto> notesById = transformFromNotesEntityToDto(noteRepository.findAllWithTagsByIdIn(ids))
+                .stream().collect(Collectors.toMap(NoteDto::getId, noteDto -> noteDto));
+        // note deleted since its change was read is returned among the deleted notes
+        return ids.stream().map(notesById::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 }
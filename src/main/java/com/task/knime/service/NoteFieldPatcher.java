@@ -0,0 +1,97 @@
+package com.task.knime.service;
+
+import com.task.knime.exception.IllegalFieldException;
+import com.task.knime.exception.IllegalTagModificationException;
+import com.task.knime.model.NoteEntity;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * applies partial update values to note entity fields. only fields in the allow list can be patched, their accessors
+ * and value converters are resolved once, so patching is single map lookup per field with no reflection and a value
+ * of wrong type is rejected before it reaches the entity. values equal to the current ones are not set
+ */
+public final class NoteFieldPatcher {
+
+    private static final String TAGS = "tags";
+
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private static final Map<String, PatchableField<?>> FIELDS = Map.of(
+            "title", new PatchableField<>("title", NoteEntity::getTitle, NoteEntity::setTitle, value -> value),
+            "body", new PatchableField<>("body", NoteEntity::getBody, NoteEntity::setBody, value -> value),
+            "createdAt", new PatchableField<>("createdAt", NoteEntity::getCreatedAt, NoteEntity::setCreatedAt,
+                    NoteFieldPatcher::toDate),
+            LAST_MODIFIED, new PatchableField<>(LAST_MODIFIED, NoteEntity::getLastModified, NoteEntity::setLastModified,
+                    NoteFieldPatcher::toDate));
+
+    private NoteFieldPatcher() {
+    }
+
+    /**
+     * sets the values on the note fields, last modified is set to now if any value changed unless it is patched as well
+     *
+     * @param note           to be patched
+     * @param valuesByFields values by note field names, dates given as epoch millis or iso offset date time
+     * @return whether any field value changed
+     * @throws IllegalTagModificationException if trying to update tags
+     * @throws IllegalFieldException           if field can not be patched or its value is not valid
+     */
+    public static boolean patch(NoteEntity note, Map<String, String> valuesByFields) {
+        boolean changed = false;
+        for (Map.Entry<String, String> valueByField : valuesByFields.entrySet()) {
+            PatchableField<?> field = FIELDS.get(valueByField.getKey());
+            if (field == null) {
+                if (TAGS.equals(valueByField.getKey()))
+                    throw new IllegalTagModificationException("Tags should be modified by tags api");
+                throw new IllegalFieldException("no such field exist in Note");
+            }
+            changed |= field.set(note, valueByField.getValue());
+        }
+        if (changed && !valuesByFields.containsKey(LAST_MODIFIED))
+            note.setLastModified(new Date());
+        return changed;
+    }
+
+    private static Date toDate(String value) {
+        if (!value.isEmpty() && value.chars().allMatch(Character::isDigit))
+            return new Date(Long.parseLong(value));
+        return Date.from(OffsetDateTime.parse(value).toInstant());
+    }
+
+    private static class PatchableField<T> {
+        private final String name;
+        private final Function<NoteEntity, T> getter;
+        private final BiConsumer<NoteEntity, T> setter;
+        private final Function<String, T> converter;
+
+        PatchableField(String name, Function<NoteEntity, T> getter, BiConsumer<NoteEntity, T> setter,
+                       Function<String, T> converter) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+            this.converter = converter;
+        }
+
+        boolean set(NoteEntity note, String value) {
+            if (value == null)
+                throw new IllegalFieldException("please provide " + name);
+            T converted;
+            try {
+                converted = converter.apply(value);
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalFieldException("invalid value of " + name + ": " + value);
+            }
+            // converted value compared first, loaded date may be timestamp which is never equal to date
+            if (converted.equals(getter.apply(note)))
+                return false;
+            setter.accept(note, converted);
+            return true;
+        }
+    }
+}
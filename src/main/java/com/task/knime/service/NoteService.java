@@ -1,29 +1,39 @@
 package com.task.knime.service;
 
 import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.ChangeType;
 import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NoteSearchHitDto;
 import com.task.knime.dto.TagsNoteDto;
+import com.task.knime.events.ChangeEventBus;
 import com.task.knime.exception.IllegalFieldException;
 import com.task.knime.exception.IllegalTagModificationException;
 import com.task.knime.exception.ResourceNotFoundException;
 import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NoteTombstoneEntity;
 import com.task.knime.model.NotebookEntity;
 import com.task.knime.model.TagEntity;
 import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteTombstoneRepository;
 import com.task.knime.repository.NotebookRepository;
-import com.task.knime.repository.TagRepository;
+import com.task.knime.search.NoteSearchIndex;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.ReflectionUtils;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.lang.reflect.Field;
+import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import static com.task.knime.service.ServiceUtils.transformFromNoteEntityToDto;
-import static com.task.knime.service.ServiceUtils.transformNotebookEntityToDto;
-import static org.springframework.transaction.annotation.Isolation.REPEATABLE_READ;
+import static com.task.knime.service.ServiceUtils.transformFromNotesEntityToDto;
 
 @Service
 public class NoteService {
@@ -35,11 +45,44 @@ public class NoteService {
     NotebookRepository notebookRepository;
 
     @Autowired
-    TagRepository tagRepository;
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    @Autowired
+    TagDictionary tagDictionary;
 
     @Autowired
     CacheManager cacheManager;
 
+    @Autowired
+    TagIndex tagIndex;
+
+    @Autowired
+    NoteSearchIndex noteSearchIndex;
+
+    @Autowired
+    ChangeEventBus changeEventBus;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Value("${search.result.max-size}")
+    int maxSearchResults;
+
+    @Value("${note.bulk.max-size}")
+    int maxBulkSize;
+
+    @Value("${note.write.timeout-seconds}")
+    int writeTimeoutSeconds;
+
+    // writes with tags intern them first and run in this template, so tags are never inserted inside the write transaction
+    private TransactionTemplate writeTemplate;
+
+    @PostConstruct
+    private void init() {
+        writeTemplate = new TransactionTemplate(transactionManager);
+        writeTemplate.setTimeout(writeTimeoutSeconds);
+    }
+
     /**
      * create new Note
      *
@@ -47,16 +90,69 @@ public class NoteService {
      * @return create noteDto
      * @throws ResourceNotFoundException if there is no such note
      */
+    @Timed("service.note")
     public NoteDto createNote(NoteDto noteDto) {
+        Map<String, TagEntity> tagsByValue = tagDictionary.intern(noteDto.getTags());
+        return writeTemplate.execute(status -> {
+            NoteEntity note = getNoteEntityAfterPersistance(noteDto, tagsByValue.values());
+
+            NoteDto updatedNoteDto = transformFromNoteEntityToDto(note);
+            cacheManager.addNoteDto(updatedNoteDto);
+            noteSearchIndex.index(updatedNoteDto);
+            changeEventBus.publishNote(ChangeType.NOTE_CREATED, updatedNoteDto);
+            return updatedNoteDto;
+        });
+    }
+
+    /**
+     * creates notes in bulk in single transaction, inserts are batched by jdbc.
+     * notebooks are loaded once and every cached notebook is patched once with its created notes.
+     *
+     * @param noteDtos notes to be created with their notebook ids
+     * @return created notes in the same order
+     * @throws ResourceNotFoundException if one of the notebooks does not exist
+     * @throws IllegalFieldException     if no notes provided or too many notes provided
+     */
+    @Timed("service.note")
+    public List<NoteDto> createNotes(List<NoteDto> noteDtos) {
+        if (noteDtos == null || noteDtos.isEmpty())
+            throw new IllegalFieldException("please provide notes");
+        if (noteDtos.size() > maxBulkSize)
+            throw new IllegalFieldException("at most " + maxBulkSize + " notes can be created at once");
+
+        Map<String, TagEntity> tagsByValue = tagDictionary.intern(noteDtos.stream()
+                .filter(noteDto -> noteDto.getTags() != null).flatMap(noteDto -> noteDto.getTags().stream())
+                .collect(Collectors.toSet()));
+        return writeTemplate.execute(status -> createNotes(noteDtos, tagsByValue));
+    }
 
-        NoteAndNoteBookEntity notebookAndNoteEntities = getNotebookAndNoteEntitiesAfterPersistance(noteDto);
-        NotebookEntity noteBook = notebookAndNoteEntities.getNotebookEntity();
-        NoteEntity note = notebookAndNoteEntities.getNoteEntity();
+    private List<NoteDto> createNotes(List<NoteDto> noteDtos, Map<String, TagEntity> tagsByValue) {
+        Set<Integer> notebookIds = noteDtos.stream().map(NoteDto::getNotebookId).collect(Collectors.toSet());
+        Map<Integer, NotebookEntity> notebooksById = notebookRepository.findAllById(notebookIds).stream()
+                .collect(Collectors.toMap(NotebookEntity::getId, notebook -> notebook));
+        notebookIds.stream().filter(id -> !notebooksById.containsKey(id)).findFirst().ifPresent(id -> {
+            throw new ResourceNotFoundException("notebook with id " + id + " does not exist");
+        });
 
-        NoteDto updatedNoteDto = transformFromNoteEntityToDto(note);
-        cacheManager.addNoteDto(updatedNoteDto);
-        cacheManager.addNoteBookDto(transformNotebookEntityToDto(noteBook));
-        return updatedNoteDto;
+        Date now = new Date();
+        List<NoteEntity> notes = noteDtos.stream().map(noteDto -> {
+            NoteEntity note = new NoteEntity(noteDto.getTitle(), noteDto.getBody(),
+                    notebooksById.get(noteDto.getNotebookId()), now, now);
+            if (noteDto.getTags() != null)
+                noteDto.getTags().forEach(tag -> note.addTag(tagsByValue.get(tag)));
+            return note;
+        }).collect(Collectors.toList());
+        noteRepository.saveAll(notes);
+
+        List<NoteDto> createdNotes = transformFromNotesEntityToDto(notes);
+        createdNotes.stream().collect(Collectors.groupingBy(NoteDto::getNotebookId))
+                .forEach(cacheManager::addNoteDtos);
+        createdNotes.forEach(noteDto -> {
+            tagIndex.addNoteTags(noteDto.getNotebookId(), noteDto.getId(), noteDto.getTags());
+            changeEventBus.publishNote(ChangeType.NOTE_CREATED, noteDto);
+        });
+        noteSearchIndex.indexAll(createdNotes);
+        return createdNotes;
     }
 
     /**
@@ -65,13 +161,19 @@ public class NoteService {
      * @param id of the note to be deleted
      * @return id of the deleted note
      */
-    @Transactional
+    @Timed("service.note")
+    @Transactional(timeoutString = "${note.write.timeout-seconds}")
     public int deleteNote(int id) {
         if (noteRepository.existsById(id)) {
             NoteEntity noteEntity = noteRepository.getById(id);
-            cacheManager.removeNoteBookFromCache(noteEntity.getNotebook().getId());
+            int notebookId = noteEntity.getNotebook().getId();
+            cacheManager.removeNoteFromCache(notebookId, id);
             noteEntity.deleteEntity();
             noteRepository.deleteById(id);
+            noteTombstoneRepository.save(new NoteTombstoneEntity(id, notebookId, new Date()));
+            tagIndex.removeNote(notebookId, id);
+            noteSearchIndex.delete(id);
+            changeEventBus.publishNote(ChangeType.NOTE_DELETED, notebookId, id, noteEntity.getVersion());
             return id;
 
         }
@@ -79,201 +181,229 @@ public class NoteService {
     }
 
     /**
-     * retrieves note from cahe of exist in cache otherwise from database and updates the cache
+     * retrieves note from cache, loaded from database if not cached.
+     * concurrent requests of not cached note share single load
      *
      * @param id of the note
      * @return retrieved note dto
      * @throws ResourceNotFoundException if there is no such note
      */
+    @Timed("service.note")
     public NoteDto getNote(int id) {
-
-        NoteDto noteFromCache = cacheManager.getNoteFromCache(id);
-        if (noteFromCache == null) {
-            NoteEntity note = noteRepository.findById(id).orElseThrow(() ->
-                    new ResourceNotFoundException("note with id " + id + " does not exist"));
-            NoteDto noteDto = transformFromNoteEntityToDto(note);
-            cacheManager.addNoteDto(noteDto);
-            cacheManager.addNoteBookDto(transformNotebookEntityToDto(note.getNotebook()));
-            return noteDto;
-        }
-        return noteFromCache;
+        NoteDto noteDto = cacheManager.getNote(id);
+        if (noteDto == null)
+            throw new ResourceNotFoundException("note with id " + id + " does not exist");
+        return noteDto;
     }
 
     /**
-     * updates all the values of the note , updates caches as well
+     * updates all the values of the note , updates caches as well. only added and removed tags and changed columns
+     * are written, note equal to the current one is not written and caches are not touched
      *
      * @param id      note id
      * @param noteDto
      * @return updated note
      * @throws ResourceNotFoundException if there is no such note
      */
+    @Timed("service.note")
     public NoteDto updateNote(int id, NoteDto noteDto) {
-        NoteEntity note = getUpdatedNoteEntity(id, noteDto);
+        return writeNoteWithTags(id, noteDto.getTags() == null ? Set.of() : noteDto.getTags(), (note, tagsByValue) -> {
+            if (!updateNoteEntity(note, noteDto, tagsByValue))
+                return transformFromNoteEntityToDto(note);
 
-        NoteDto updatedNoteDto = transformFromNoteEntityToDto(note);
-        cacheManager.addNoteDto(updatedNoteDto);
-        cacheManager.addNoteBookDto(transformNotebookEntityToDto(note.getNotebook()));
+            NoteDto updatedNoteDto = transformFromNoteEntityToDto(note);
+            cacheManager.addNoteDto(updatedNoteDto);
+            noteSearchIndex.index(updatedNoteDto);
+            changeEventBus.publishNote(ChangeType.NOTE_UPDATED, updatedNoteDto);
 
-        return updatedNoteDto;
+            return updatedNoteDto;
+        });
     }
 
 
     /**
-     * partial update of the note, tag update is not allowed here. tags are updated via tags api
+     * partial update of the note, tag update is not allowed here. tags are updated via tags api.
+     * note is not written if no value changed
      *
      * @param id             of the not
      * @param valuesByFields map  values to be updates by fields name
      * @return new updated noteDto
      * @throws ResourceNotFoundException       if there is no such note
      * @throws IllegalTagModificationException if trying to update tags
-     * @throws IllegalFieldException           if no such field exist
+     * @throws IllegalFieldException           if field can not be patched or its value is not valid
      */
-
+    @Timed("service.note")
+    @Transactional(timeoutString = "${note.write.timeout-seconds}")
     public NoteDto updateNotePartial(int id, Map<String, String> valuesByFields) {
-        NoteEntity note = getNoteAfterPartialUpdateEntity(id, valuesByFields);
+        NoteEntity note = findNoteEntity(id);
+        if (!NoteFieldPatcher.patch(note, valuesByFields))
+            return transformFromNoteEntityToDto(note);
+
+        noteRepository.saveAndFlush(note);
         NoteDto noteDto = transformFromNoteEntityToDto(note);
         cacheManager.addNoteDto(noteDto);
-        cacheManager.addNoteBookDto(transformNotebookEntityToDto(note.getNotebook()));
+        noteSearchIndex.index(noteDto);
+        changeEventBus.publishNote(ChangeType.NOTE_UPDATED, noteDto);
         return noteDto;
     }
 
 
     /**
-     * adds new tags to the note
+     * adds new tags to the note, note is not written if it already has all the tags
      *
      * @param tagsNoteDto
      * @return
      * @throws ResourceNotFoundException if there is no such note
      */
-
+    @Timed("service.note")
     public NoteDto addTagsToNote(TagsNoteDto tagsNoteDto) {
-        NoteEntity note = getNoteEntityWithAddedTags(tagsNoteDto);
-        NoteDto noteDto = transformFromNoteEntityToDto(note);
-        cacheManager.addNoteDto(noteDto);
-        cacheManager.addNoteBookDto(transformNotebookEntityToDto(note.getNotebook()));
-        return noteDto;
+        return writeNoteWithTags(tagsNoteDto.getNoteId(), tagsNoteDto.getTags(), (note, tagsByValue) -> {
+            if (!addTags(note, tagsNoteDto.getTags(), tagsByValue))
+                return transformFromNoteEntityToDto(note);
+
+            NoteDto noteDto = transformFromNoteEntityToDto(note);
+            cacheManager.addNoteDto(noteDto);
+            noteSearchIndex.index(noteDto);
+            changeEventBus.publishNote(ChangeType.NOTE_UPDATED, noteDto);
+            return noteDto;
+        });
     }
 
     /**
-     * deletes tags from note
+     * deletes tags from note, note is not written if it has none of the tags
      *
      * @param tagsNoteDto note id with tags to be deleted
      * @return updated noteDto with removed tags
      * @throws ResourceNotFoundException if there is no such note
      */
-    @Transactional
+    @Timed("service.note")
+    @Transactional(timeoutString = "${note.write.timeout-seconds}")
     public NoteDto deleteTagsFromNote(TagsNoteDto tagsNoteDto) {
-        NoteEntity note = getNoteEntityAfterTagsDeletion(tagsNoteDto);
+        NoteEntity note = findNoteEntity(tagsNoteDto.getNoteId());
+        if (!removeTags(note, tagsNoteDto.getTags()))
+            return transformFromNoteEntityToDto(note);
+
         NoteDto noteDto = transformFromNoteEntityToDto(note);
         cacheManager.addNoteDto(noteDto);
-        cacheManager.addNoteBookDto(transformNotebookEntityToDto(note.getNotebook()));
+        noteSearchIndex.index(noteDto);
+        changeEventBus.publishNote(ChangeType.NOTE_UPDATED, noteDto);
 
         return noteDto;
     }
 
-    private NoteEntity getNoteEntityAfterTagsDeletion(TagsNoteDto tagsNoteDto) {
-        NoteEntity note = noteRepository.findById(tagsNoteDto.getNoteId()).orElseThrow(() ->
-                new ResourceNotFoundException("note with id " + tagsNoteDto.getNoteId() + " does not exist"));
-        List<Integer> tagsToBeRemoved = note.getTags().stream()
-                .filter(tag -> tagsNoteDto.getTags().contains(tag.getValue()))
-                .map(TagEntity::getId)
-                .collect(Collectors.toList());
+    /**
+     * ranked full text search over notes title and body
+     *
+     * @param query      text to search
+     * @param notebookId optional notebook id to search in
+     * @param tags       optional tags that all found notes should have
+     * @param limit      maximal number of results, limited by max search results
+     * @return search hits ordered by relevance
+     * @throws IllegalFieldException if query is empty
+     */
+    @Timed("service.note")
+    public List<NoteSearchHitDto> searchNotes(String query, Integer notebookId, Collection<String> tags, int limit) {
+        if (query == null || query.isBlank())
+            throw new IllegalFieldException("please provide search query");
 
-        List<TagEntity> tagEntitiesToRemove = tagRepository.findAllById(tagsToBeRemoved);
-        tagEntitiesToRemove.forEach(TagEntity::deleteEntity);
-        tagRepository.deleteTagsWithIds(tagsToBeRemoved);
+        return noteSearchIndex.search(query, notebookId, tags, Math.max(1, Math.min(limit, maxSearchResults)));
+    }
 
-        note.setLastModified(new Date());
-        noteRepository.save(note);
-        return note;
+    /**
+     * writes the note in write transaction with dictionary tags of the tags it does not have yet. the tags are
+     * interned only after the note is found, so write of missing note or of tags the note already has does not insert
+     * dictionary rows. transaction that finds tags not interned yet makes no changes, and is run again after they are
+     * interned outside of it
+     *
+     * @throws ResourceNotFoundException if there is no such note
+     */
+    private NoteDto writeNoteWithTags(int id, Collection<String> tags,
+                                      BiFunction<NoteEntity, Map<String, TagEntity>, NoteDto> write) {
+        Map<String, TagEntity> tagsByValue = new HashMap<>();
+        while (true) {
+            Set<String> notInterned = new HashSet<>();
+            NoteDto noteDto = writeTemplate.execute(status -> {
+                NoteEntity note = findNoteEntity(id);
+                Set<String> currentTags = note.getTagValues();
+                tags.stream().filter(tag -> !currentTags.contains(tag) && !tagsByValue.containsKey(tag))
+                        .forEach(notInterned::add);
+                return notInterned.isEmpty() ? write.apply(note, tagsByValue) : null;
+            });
+            if (notInterned.isEmpty())
+                return noteDto;
+            tagsByValue.putAll(tagDictionary.intern(notInterned));
+        }
     }
 
-    @Transactional
-    private NoteEntity getNoteEntityWithAddedTags(TagsNoteDto tagsNoteDto) {
-        NoteEntity note = noteRepository.findById(tagsNoteDto.getNoteId()).orElseThrow(() ->
-                new ResourceNotFoundException("note with id " + tagsNoteDto.getNoteId() + " does not exist"));
+    private NoteEntity findNoteEntity(int id) {
+        return noteRepository.findById(id).orElseThrow(() ->
+                new ResourceNotFoundException("note with id " + id + " does not exist"));
+    }
 
-        saveAndUpdateTags(note, tagsNoteDto.getTags());
+    private boolean removeTags(NoteEntity note, Collection<String> tagsValues) {
+        if (!note.removeTags(tagsValues))
+            return false;
+        tagIndex.removeNoteTags(note.getNotebook().getId(), note.getId(), tagsValues);
         note.setLastModified(new Date());
-        noteRepository.save(note);
-        return note;
+        noteRepository.saveAndFlush(note);
+        return true;
+    }
+
+    private boolean addTags(NoteEntity note, Collection<String> tagsValues, Map<String, TagEntity> tagsByValue) {
+        Set<String> currentTags = note.getTagValues();
+        // only tags missing from the note are added
+        List<String> addedTags = tagsValues.stream().filter(tag -> !currentTags.contains(tag)).distinct()
+                .collect(Collectors.toList());
+        if (addedTags.isEmpty())
+            return false;
+        saveAndUpdateTags(note, addedTags, tagsByValue);
+        note.setLastModified(new Date());
+        noteRepository.saveAndFlush(note);
+        return true;
     }
 
     @Transactional
-    private NoteAndNoteBookEntity getNotebookAndNoteEntitiesAfterPersistance(NoteDto noteDto) {
+    private NoteEntity getNoteEntityAfterPersistance(NoteDto noteDto, Collection<TagEntity> tags) {
         NotebookEntity noteBook = notebookRepository.findById(noteDto.getNotebookId()).orElseThrow(() ->
                 new ResourceNotFoundException("note with id " + noteDto.getNotebookId() + " does not exist"));
-        NoteEntity note = noteRepository.save(new NoteEntity(noteDto.getTitle(), noteDto.getBody(), noteBook
-                , new Date(), new Date()));
-        note.setNotebook(noteBook);
-
-        saveAndUpdateTags(note, noteDto.getTags());
-        return new NoteAndNoteBookEntity(note, noteBook);
+        // notebook notes collection is not touched, so it is not loaded just for adding single note
+        NoteEntity note = new NoteEntity(noteDto.getTitle(), noteDto.getBody(), noteBook, new Date(), new Date());
+        // tags are added before persisting, so note and its tags are inserted without version increment
+        note.addTags(tags);
+        noteRepository.save(note);
+        tagIndex.addNoteTags(note.getNotebook().getId(), note.getId(), noteDto.getTags());
+        noteRepository.flush();
+        return note;
     }
 
     @Transactional
-    private void saveAndUpdateTags(NoteEntity note, Collection<String> tagsValues) {
-        Set<TagEntity> tags = tagsValues.stream()
-                .map(tag -> new TagEntity(tag, note)).collect(Collectors.toSet());
-        tagRepository.saveAll(tags);
-        tags.forEach(tag -> tag.setNote(note));
+    private void saveAndUpdateTags(NoteEntity note, Collection<String> tagsValues, Map<String, TagEntity> tagsByValue) {
+        note.addTags(tagsValues.stream().map(tagsByValue::get).collect(Collectors.toList()));
+        tagIndex.addNoteTags(note.getNotebook().getId(), note.getId(), tagsValues);
     }
 
-    @Transactional(isolation = REPEATABLE_READ)
-    private NoteEntity getNoteAfterPartialUpdateEntity(int id, Map<String, String> valuesByFields) {
-        NoteEntity note = noteRepository.findById(id).orElseThrow(() ->
-                new ResourceNotFoundException("note with id " + id + " does not exist"));
-        valuesByFields.forEach((key, value) -> {
-
-            if (key.equals("tags"))
-                throw new IllegalTagModificationException("Tags should be modified by tags api");
-
-            Field field = ReflectionUtils.findField(NoteEntity.class, key);
-            if (field != null) {
-                field.setAccessible(true);
-                ReflectionUtils.setField(field, note, value);
-            } else throw new IllegalFieldException("no such field exist in Note");
-        });
-        note.setLastModified(new Date());
-        return noteRepository.save(note);
-    }
+    private boolean updateNoteEntity(NoteEntity note, NoteDto noteDto, Map<String, TagEntity> tagsByValue) {
+        Set<String> currentTags = note.getTagValues();
+        Set<String> tags = noteDto.getTags() == null ? new HashSet<>() : new HashSet<>(noteDto.getTags());
+        boolean tagsChanged = !tags.equals(currentTags);
+        if (!tagsChanged && Objects.equals(note.getTitle(), noteDto.getTitle())
+                && Objects.equals(note.getBody(), noteDto.getBody()))
+            return false;
 
-    @Transactional(isolation = REPEATABLE_READ)
-    public NoteEntity getUpdatedNoteEntity(int id, NoteDto noteDto) {
-        NoteEntity note = noteRepository.findById(id).orElseThrow(() ->
-                new ResourceNotFoundException("note with id " + id + " does not exist"));
         note.setBody(noteDto.getBody());
         note.setTitle(noteDto.getTitle());
-
-        note.deleteAllTags();
-        List<Integer> tagsIds = note.getTags().stream().map(TagEntity::getId).collect(Collectors.toList());
-
-        tagRepository.deleteTagsWithIds(tagsIds);
-        Set<TagEntity> tags = noteDto.getTags().stream()
-                .map(tag -> new TagEntity(tag, note)).collect(Collectors.toSet());
-
-        tagRepository.saveAll(tags);
-        tags.forEach(tag -> tag.setNote(note));
-        note.setLastModified(new Date());
-        noteRepository.save(note);
-        return note;
-    }
-
-    private class NoteAndNoteBookEntity {
-        NoteEntity noteEntity;
-        NotebookEntity notebookEntity;
-
-        public NoteAndNoteBookEntity(NoteEntity noteEntity, NotebookEntity notebookEntity) {
-            this.noteEntity = noteEntity;
-            this.notebookEntity = notebookEntity;
-        }
-
-        public NoteEntity getNoteEntity() {
-            return noteEntity;
-        }
-
-        public NotebookEntity getNotebookEntity() {
-            return notebookEntity;
+        if (tagsChanged) {
+            // only removed and added tags rows are written, the tags kept are not touched
+            Set<String> removedTags = new HashSet<>(currentTags);
+            removedTags.removeAll(tags);
+            tags.removeAll(currentTags);
+            note.removeTags(removedTags);
+            note.addTags(tags.stream().map(tagsByValue::get).collect(Collectors.toList()));
+            tagIndex.removeNoteTags(note.getNotebook().getId(), note.getId(), removedTags);
+            tagIndex.addNoteTags(note.getNotebook().getId(), note.getId(), tags);
         }
+        note.setLastModified(new Date());
+        noteRepository.saveAndFlush(note);
+        return true;
     }
 }
@@ -0,0 +1,70 @@
+package com.task.knime.service;
+
+import com.task.knime.repository.NoteTombstoneRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * deletes tombstones of notes deleted before the changes retention, so the tombstones table does not grow without
+ * bound. changes since older tokens are no longer returned, clients holding them sync again from scratch
+ */
+@Slf4j
+@Component
+public class NoteTombstonePurger {
+
+    private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    @Value("${sync.changes.retention-days}")
+    int retentionDays;
+
+    @Autowired
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService purger;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "note-tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void close() {
+        purger.shutdownNow();
+    }
+
+    /**
+     * @return number of purged tombstones
+     */
+    int purge() {
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+        try {
+            Integer purged = transactionTemplate.execute(status -> noteTombstoneRepository.deleteDeletedBefore(before));
+            log.info("purged {} note tombstones deleted before {}", purged, before);
+            return purged == null ? 0 : purged;
+        } catch (RuntimeException e) {
+            log.warn("note tombstones purge failed", e);
+            return 0;
+        }
+    }
+}
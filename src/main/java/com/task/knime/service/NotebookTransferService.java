@@ -0,0 +1,280 @@
+package com.task.knime.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.ChangeType;
+import com.task.knime.dto.ImportSummaryDto;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.exception.IllegalFieldException;
+import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NotebookExportRow;
+import com.task.knime.repository.NotebookRepository;
+import com.task.knime.search.NoteSearchIndex;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.task.knime.service.ServiceUtils.transformFromNotesEntityToDto;
+
+@Service
+@Slf4j
+public class NotebookTransferService {
+
+    private static final byte NEW_LINE = '\n';
+
+    private static final long PROGRESS_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    @Autowired
+    NotebookRepository notebookRepository;
+
+    @Autowired
+    NoteRepository noteRepository;
+
+    @Autowired
+    TagIndex tagIndex;
+
+    @Autowired
+    TagDictionary tagDictionary;
+
+    @Autowired
+    NoteSearchIndex noteSearchIndex;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    ChangeEventBus changeEventBus;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${notebook.import.batch-size}")
+    int importBatchSize;
+
+    @Value("${note.write.timeout-seconds}")
+    int writeTimeoutSeconds;
+
+    private TransactionTemplate transactionTemplate;
+    private Counter importedNotebooks;
+    private Counter importedNotes;
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        // changes are synced by write time, which is assumed to be at most the write timeout before the commit
+        transactionTemplate.setTimeout(writeTimeoutSeconds);
+        importedNotebooks = meterRegistry.counter("transfer.import.notebooks");
+        importedNotes = meterRegistry.counter("transfer.import.notes");
+    }
+
+    /**
+     * writes all notebooks with their notes as newline delimited json, notebook per line ordered by id.
+     * rows are streamed from the database without loading entities, only the notebook currently written is kept in memory
+     *
+     * @param outputStream to write to, not closed
+     * @return number of exported notebooks
+     */
+    @Timed("service.transfer")
+    @Transactional(readOnly = true)
+    public long exportNotebooks(OutputStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        long exported = 0;
+        try (Stream<NotebookExportRow> rows = notebookRepository.streamAllForExport()) {
+            Iterator<NotebookExportRow> iterator = rows.iterator();
+            NotebookDto notebook = null;
+            Map<Integer, NoteDto> notes = new LinkedHashMap<>();
+            while (iterator.hasNext()) {
+                NotebookExportRow row = iterator.next();
+                if (notebook == null || notebook.getId() != row.getNotebookId()) {
+                    if (notebook != null) {
+                        writeNotebook(outputStream, notebook, notes);
+                        exported++;
+                    }
+                    notebook = NotebookDto.builder().id(row.getNotebookId()).name(row.getNotebookName()).build();
+                    notes.clear();
+                }
+                if (row.getNoteId() == null)
+                    continue;
+                NoteDto note = notes.computeIfAbsent(row.getNoteId(), id -> NoteDto.builder().id(id)
+                        .NotebookId(row.getNotebookId()).title(row.getTitle()).body(row.getBody())
+                        .createdTime(row.getCreatedAt()).lastModified(row.getLastModified())
+                        .version(row.getVersion()).tags(new ArrayList<>()).build());
+                if (row.getTag() != null)
+                    note.getTags().add(row.getTag());
+            }
+            if (notebook != null) {
+                writeNotebook(outputStream, notebook, notes);
+                exported++;
+            }
+        }
+        outputStream.flush();
+        log.info("exported {} notebooks in {} ms", exported, (System.nanoTime() - start) / 1_000_000);
+        return exported;
+    }
+
+    private void writeNotebook(OutputStream outputStream, NotebookDto notebook, Map<Integer, NoteDto> notes)
+            throws IOException {
+        notebook.setNotes(new ArrayList<>(notes.values()));
+        outputStream.write(objectMapper.writeValueAsBytes(notebook));
+        outputStream.write(NEW_LINE);
+    }
+
+    /**
+     * creates notebooks with their notes and tags from newline delimited json, notebook per line as written by export.
+     * notebooks are parsed incrementally and notes one at a time, so the input is read only as fast as it is persisted.
+     * notes are written in transactions of {@code importBatchSize} notes with persistence context cleared after each one,
+     * batches committed before malformed input is encountered remain imported.
+     * ids and versions of the input are ignored, new notebooks and notes are created
+     *
+     * @param inputStream to read from, not closed
+     * @return number of imported notebooks and notes and import throughput
+     * @throws IllegalFieldException if input is not notebooks json or notebook has no name or note has no title or body
+     */
+    @Timed("service.transfer")
+    public ImportSummaryDto importNotebooks(InputStream inputStream) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT)
+                    throw malformed(parser, "notebook object expected");
+                importNotebook(parser, progress);
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalFieldException("malformed notebook json at line " + e.getLocation().getLineNr() + ": "
+                    + e.getOriginalMessage());
+        }
+        progress.flush();
+
+        long durationMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progress.start));
+        log.info("imported {} notebooks with {} notes in {} ms", progress.notebooks, progress.notes, durationMillis);
+        return ImportSummaryDto.builder().notebooks(progress.notebooks).notes(progress.notes)
+                .durationMillis(durationMillis).notesPerSecond(progress.notes * 1000 / durationMillis).build();
+    }
+
+    private void importNotebook(JsonParser parser, ImportProgress progress) throws IOException {
+        String name = null;
+        NotebookEntity notebook = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("name")) {
+                name = parser.getValueAsString();
+            } else if (field.equals("notes") && value == JsonToken.START_ARRAY) {
+                notebook = progress.addNotebook(name, parser);
+                while (parser.nextToken() == JsonToken.START_OBJECT)
+                    progress.addNote(notebook, objectMapper.readValue(parser, NoteDto.class), parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (notebook == null)
+            progress.addNotebook(name, parser);
+    }
+
+    private static IllegalFieldException malformed(JsonParser parser, String message) {
+        return new IllegalFieldException(message + " at line " + parser.getCurrentLocation().getLineNr());
+    }
+
+    /**
+     * pending batch of notebooks and notes not persisted yet together with import counters
+     */
+    private class ImportProgress {
+        final long start = System.nanoTime();
+        long lastReport = start;
+        long notebooks;
+        long notes;
+        final List<NotebookEntity> pendingNotebooks = new ArrayList<>();
+        final List<NoteEntity> pendingNotes = new ArrayList<>();
+
+        NotebookEntity addNotebook(String name, JsonParser parser) {
+            if (name == null || name.isBlank())
+                throw malformed(parser, "notebook name should be provided before its notes");
+            NotebookEntity notebook = new NotebookEntity(name);
+            pendingNotebooks.add(notebook);
+            return notebook;
+        }
+
+        void addNote(NotebookEntity notebook, NoteDto noteDto, JsonParser parser) {
+            if (noteDto.getTitle() == null || noteDto.getBody() == null)
+                throw malformed(parser, "note title and body should be provided");
+            Date now = new Date();
+            // note is not added to notebook notes, so notebook does not hold the notes of previous batches
+            NoteEntity note = new NoteEntity(noteDto.getTitle(), noteDto.getBody(), notebook,
+                    noteDto.getCreatedTime() != null ? noteDto.getCreatedTime() : now,
+                    noteDto.getLastModified() != null ? noteDto.getLastModified() : now);
+            if (noteDto.getTags() != null)
+                note.addTags(tagDictionary.intern(noteDto.getTags()).values());
+            pendingNotes.add(note);
+            if (pendingNotes.size() >= importBatchSize)
+                flush();
+        }
+
+        void flush() {
+            if (pendingNotebooks.isEmpty() && pendingNotes.isEmpty())
+                return;
+            transactionTemplate.executeWithoutResult(status -> {
+                notebookRepository.saveAll(pendingNotebooks);
+                noteRepository.saveAll(pendingNotes);
+                List<NoteDto> createdNotes = transformFromNotesEntityToDto(pendingNotes);
+                createdNotes.forEach(noteDto ->
+                        tagIndex.addNoteTags(noteDto.getNotebookId(), noteDto.getId(), noteDto.getTags()));
+                noteSearchIndex.indexAll(createdNotes);
+                pendingNotebooks.forEach(notebook ->
+                        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, notebook.getId()));
+                createdNotes.forEach(noteDto -> changeEventBus.publishNote(ChangeType.NOTE_CREATED, noteDto));
+                entityManager.flush();
+                entityManager.clear();
+            });
+            notebooks += pendingNotebooks.size();
+            notes += pendingNotes.size();
+            importedNotebooks.increment(pendingNotebooks.size());
+            importedNotes.increment(pendingNotes.size());
+            pendingNotebooks.clear();
+            pendingNotes.clear();
+
+            long now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_REPORT_INTERVAL) {
+                lastReport = now;
+                log.info("importing notebooks, {} notebooks and {} notes imported, {} notes/s", notebooks, notes,
+                        notes * TimeUnit.SECONDS.toNanos(1) / (now - start));
+            }
+        }
+    }
+}
@@ -21,6 +21,10 @@ public class ServiceUtils {
 
     }
 
+    public static List<NotebookDto> transformNotebooksEntityToDto(Collection<NotebookEntity> notebookEntities) {
+        return notebookEntities.stream().map(ServiceUtils::transformNotebookEntityToDto).collect(Collectors.toList());
+    }
+
     public static List<NoteDto> transformFromNotesEntityToDto(Collection<NoteEntity> notes) {
         return notes.stream().map(ServiceUtils::transformFromNoteEntityToDto).collect(Collectors.toList());
     }
@@ -30,6 +34,7 @@ public class ServiceUtils {
                 .body(noteEntity.getBody())
                 .NotebookId(noteEntity.getNotebook().getId())
                 .lastModified(noteEntity.getLastModified()).title(noteEntity.getTitle())
+                .version(noteEntity.getVersion())
                 .tags(noteEntity.getTags().stream().map(TagEntity::getValue).collect(Collectors.toList())).build();
     }
 
@@ -0,0 +1,494 @@
+package com.task.knime;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.task.knime.cache.CacheInvalidation;
+import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.DtoLoader;
+import com.task.knime.cache.InvalidationTransport;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NotebookDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheManagerTest {
+
+    CacheManager cacheManager;
+
+    CountingDtoLoader dtoLoader = new CountingDtoLoader();
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    RecordingInvalidationTransport invalidationTransport = new RecordingInvalidationTransport();
+
+    @BeforeEach
+    public void before() {
+        cacheManager = new CacheManager();
+        ReflectionTestUtils.setField(cacheManager, "dtoLoader", dtoLoader);
+        ReflectionTestUtils.setField(cacheManager, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(cacheManager, "invalidationTransport", invalidationTransport);
+        ReflectionTestUtils.setField(cacheManager, "noteBookExpirationDuration", 5);
+        ReflectionTestUtils.setField(cacheManager, "noteExpirationDuration", 5);
+        ReflectionTestUtils.setField(cacheManager, "noteBookRefreshDuration", 1);
+        ReflectionTestUtils.setField(cacheManager, "noteRefreshDuration", 1);
+        ReflectionTestUtils.setField(cacheManager, "noteBookSizeMb", 64);
+        ReflectionTestUtils.setField(cacheManager, "noteSizeMb", 16);
+        ReflectionTestUtils.invokeMethod(cacheManager, "configureCaches");
+    }
+
+    @Test
+    public void notebookPatchedByNoteChangesTest() {
+        int notebookId = 1;
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(notebookId).name("notebook")
+                .notes(List.of(note(1, notebookId, "first"), note(2, notebookId, "second"))).build());
+
+        cacheManager.addNoteDto(note(2, notebookId, "second updated"));
+        cacheManager.addNoteDto(note(3, notebookId, "third"));
+        cacheManager.removeNoteFromCache(notebookId, 1);
+
+        NotebookDto cachedNotebook = cacheManager.getNoteBookFromCache(notebookId);
+        assertEquals("notebook", cacheManager.getNoteBookNameFromCache(notebookId));
+        assertEquals(2, cachedNotebook.getNotes().size());
+        assertEquals("second updated", cachedNotebook.getNotes().get(0).getTitle());
+        assertEquals("third", cachedNotebook.getNotes().get(1).getTitle());
+        assertNull(cacheManager.getNoteFromCache(1));
+        assertEquals("third", cacheManager.getNoteFromCache(3).getTitle());
+
+        cacheManager.removeNoteBookFromCache(notebookId, List.of(2, 3));
+        assertNull(cacheManager.getNoteBookFromCache(notebookId));
+        assertNull(cacheManager.getNoteFromCache(2));
+    }
+
+    @Test
+    public void noteOfNotCachedNotebookTest() {
+        cacheManager.addNoteDto(note(1, 7, "first"));
+        assertNull(cacheManager.getNoteBookFromCache(7));
+        assertEquals("first", cacheManager.getNoteFromCache(1).getTitle());
+    }
+
+    @Test
+    public void olderNoteVersionNotCachedTest() {
+        int notebookId = 1;
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(notebookId).name("notebook")
+                .notes(List.of(note(1, notebookId, "first"))).build());
+
+        cacheManager.addNoteDto(note(1, notebookId, "updated", 2));
+        cacheManager.addNoteDto(note(1, notebookId, "stale", 1));
+
+        assertEquals("updated", cacheManager.getNoteFromCache(1).getTitle());
+        assertEquals("updated", cacheManager.getNoteBookFromCache(notebookId).getNotes().get(0).getTitle());
+    }
+
+    @Test
+    public void notebookPatchedOnceByBulkNotesTest() {
+        int notebookId = 1;
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(notebookId).name("notebook")
+                .notes(List.of(note(1, notebookId, "first"))).build());
+        cacheManager.removeNoteFromCache(notebookId, 4);
+        invalidationTransport.broadcast.clear();
+
+        cacheManager.addNoteDtos(notebookId, List.of(note(2, notebookId, "second"), note(3, notebookId, "third"),
+                note(4, notebookId, "deleted")));
+
+        assertEquals(List.of("first", "second", "third"), cacheManager.getNoteBookFromCache(notebookId).getNotes()
+                .stream().map(NoteDto::getTitle).collect(Collectors.toList()));
+        assertEquals("third", cacheManager.getNoteFromCache(3).getTitle());
+        assertNull(cacheManager.getNoteFromCache(4));
+        assertEquals(1, invalidationTransport.broadcast.size());
+        assertEquals(notebookId, invalidationTransport.broadcast.get(0).getNotebookId());
+        assertNull(invalidationTransport.broadcast.get(0).getNoteId());
+    }
+
+    @Test
+    public void deletedNoteNotCachedAgainTest() {
+        int notebookId = 1;
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(notebookId).name("notebook").notes(List.of()).build());
+
+        cacheManager.removeNoteFromCache(notebookId, 1);
+        cacheManager.addNoteDto(note(1, notebookId, "loaded before deletion"));
+
+        assertNull(cacheManager.getNoteFromCache(1));
+        assertTrue(cacheManager.getNoteBookFromCache(notebookId).getNotes().isEmpty());
+    }
+
+    @Test
+    public void concurrentMissesLoadOnceTest() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<NoteDto>> notes = new ArrayList<>();
+            List<Future<NotebookDto>> notebooks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                notes.add(executor.submit(() -> {
+                    start.await();
+                    return cacheManager.getNote(1);
+                }));
+                notebooks.add(executor.submit(() -> {
+                    start.await();
+                    return cacheManager.getNoteBook(1);
+                }));
+            }
+            start.countDown();
+            for (Future<NoteDto> note : notes)
+                assertEquals("loaded", note.get(10, TimeUnit.SECONDS).getTitle());
+            for (Future<NotebookDto> notebook : notebooks)
+                assertEquals(1, notebook.get(10, TimeUnit.SECONDS).getNotes().size());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, dtoLoader.noteLoads.get());
+        assertEquals(1, dtoLoader.notebookLoads.get());
+    }
+
+    @Test
+    public void bulkGetLoadsOnlyMissingTest() {
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(2).name("cached").notes(List.of()).build());
+
+        List<NotebookDto> notebooks = cacheManager.getNoteBooks(List.of(2, 1, 404));
+        assertEquals(List.of(2, 1), notebooks.stream().map(NotebookDto::getId).collect(Collectors.toList()));
+        assertEquals(List.of(List.of(1, 404)), dtoLoader.bulkLoads);
+
+        assertEquals(2, cacheManager.getNoteBooks(List.of(1, 2)).size());
+        assertEquals(1, dtoLoader.bulkLoads.size());
+        assertEquals(0, dtoLoader.notebookLoads.get());
+    }
+
+    @Test
+    public void notebookChangedWhileBulkLoadingNotCachedTest() {
+        dtoLoader.duringBulkLoad = () -> cacheManager.addNoteDto(note(1, 1, "updated", 1));
+
+        List<NotebookDto> notebooks = cacheManager.getNoteBooks(List.of(1));
+        assertEquals(1, notebooks.size());
+        assertNull(cacheManager.getNoteBookFromCache(1));
+    }
+
+    @Test
+    public void cacheMetricsTest() {
+        cacheManager.getNote(1);
+        cacheManager.getNote(1);
+        cacheManager.getNote(1);
+
+        assertEquals(2, meterRegistry.get("cache.gets").tags("cache", "notes", "result", "hit").functionCounter().count());
+        assertEquals(1, meterRegistry.get("cache.gets").tags("cache", "notes", "result", "miss").functionCounter().count());
+        assertEquals(1, meterRegistry.get("cache.size").tags("cache", "notes").gauge().value());
+        assertEquals(0, meterRegistry.get("cache.gets").tags("cache", "notebooks", "result", "miss").functionCounter().count());
+    }
+
+    @Test
+    public void notFoundNotCachedTest() {
+        assertNull(cacheManager.getNote(404));
+        assertNull(cacheManager.getNoteBook(404));
+        assertNull(cacheManager.getNoteFromCache(404));
+        assertNull(cacheManager.getNoteBookFromCache(404));
+    }
+
+    @Test
+    public void noteChangedWhileNotebookLoadingTest() throws Exception {
+        dtoLoader.loading = new CountDownLatch(1);
+        dtoLoader.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<NotebookDto> loaded = executor.submit(() -> cacheManager.getNoteBook(1));
+            dtoLoader.loading.await(10, TimeUnit.SECONDS);
+            Future<?> written = executor.submit(() -> cacheManager.addNoteDto(note(1, 1, "updated", 1)));
+            dtoLoader.release.countDown();
+            loaded.get(10, TimeUnit.SECONDS);
+            written.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("updated", cacheManager.getNoteBookFromCache(1).getNotes().get(0).getTitle());
+    }
+
+    @Test
+    public void notebookDeletedWhileLoadingTest() throws Exception {
+        dtoLoader.loading = new CountDownLatch(1);
+        dtoLoader.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<NotebookDto> loaded = executor.submit(() -> cacheManager.getNoteBook(1));
+            dtoLoader.loading.await(10, TimeUnit.SECONDS);
+            Future<?> removed = executor.submit(() -> cacheManager.removeNoteBookFromCache(1, List.of(1)));
+            dtoLoader.release.countDown();
+            loaded.get(10, TimeUnit.SECONDS);
+            removed.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNull(cacheManager.getNoteBookFromCache(1));
+    }
+
+    @Test
+    public void notesDeletedByOthersRemovedOnRefreshTest() throws Exception {
+        LoadingCache<Integer, ?> noteBookCache = (LoadingCache<Integer, ?>) ReflectionTestUtils.getField(cacheManager,
+                "noteBookCache");
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(1).name("notebook")
+                .notes(List.of(note(1, 1, "first"), note(2, 1, "deleted by other instance"))).build());
+        noteBookCache.refresh(1);
+        awaitNoteBookTitles(List.of("loaded"));
+
+        // note added while refreshing is kept
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(1).name("notebook")
+                .notes(List.of(note(1, 1, "first"))).build());
+        dtoLoader.loading = new CountDownLatch(1);
+        dtoLoader.release = new CountDownLatch(1);
+        noteBookCache.refresh(1);
+        dtoLoader.loading.await(10, TimeUnit.SECONDS);
+        cacheManager.addNoteDto(note(3, 1, "added"));
+        dtoLoader.release.countDown();
+        awaitNoteBookTitles(List.of("loaded", "added"));
+    }
+
+    private void awaitNoteBookTitles(List<String> titles) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> cached;
+        while (!(cached = cacheManager.getNoteBookFromCache(1).getNotes().stream().map(NoteDto::getTitle)
+                .collect(Collectors.toList())).equals(titles) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(titles, cached);
+    }
+
+    @Test
+    public void changesAppliedAfterCommitTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cacheManager.addNoteDto(note(1, 1, "first"));
+            assertNull(cacheManager.getNoteFromCache(1));
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            assertEquals("first", cacheManager.getNoteFromCache(1).getTitle());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void notebookVersionFollowsNotesTest() {
+        int notebookId = 1;
+        NotebookDto notebook = NotebookDto.builder().id(notebookId).name("notebook")
+                .notes(List.of(note(1, notebookId, "first"), note(2, notebookId, "second"))).build();
+        cacheManager.addNoteBookDto(notebook);
+        String eTag = cacheManager.getNoteBookVersion(notebookId).getETag();
+
+        cacheManager.addNoteDto(note(1, notebookId, "first", 0));
+        assertEquals(eTag, cacheManager.getNoteBookVersion(notebookId).getETag());
+
+        cacheManager.addNoteDto(note(1, notebookId, "updated", 1));
+        String updatedETag = cacheManager.getNoteBookVersion(notebookId).getETag();
+        assertNotEquals(eTag, updatedETag);
+
+        cacheManager.addNoteDto(note(3, notebookId, "third"));
+        cacheManager.removeNoteFromCache(notebookId, 3);
+        assertEquals(updatedETag, cacheManager.getNoteBookVersion(notebookId).getETag());
+
+        // same notes cached in other order have the same version
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(notebookId).name("notebook")
+                .notes(List.of(note(2, notebookId, "second"), note(1, notebookId, "updated", 1))).build());
+        assertEquals(updatedETag, cacheManager.getNoteBookVersion(notebookId).getETag());
+        assertNull(cacheManager.getNoteBookVersion(404));
+    }
+
+    @Test
+    public void changesBroadcastAfterCommitTest() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cacheManager.addNoteDto(note(2, 1, "second"));
+            // note loaded by a read is not a change
+            cacheManager.cacheLoadedNote(note(6, 1, "loaded"));
+            cacheManager.removeNoteFromCache(1, 3);
+            cacheManager.removeNoteBookFromCache(4, List.of(5));
+            assertTrue(invalidationTransport.broadcast.isEmpty());
+            TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(List.of("1/2", "1/3 deleted", "4/null deleted", "4/5 deleted"), invalidationTransport.broadcast
+                .stream().map(invalidation -> invalidation.getNotebookId() + "/" + invalidation.getNoteId() +
+                        (invalidation.isDeleted() ? " deleted" : "")).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void invalidatedByOtherInstanceTest() {
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(1).name("notebook")
+                .notes(List.of(note(1, 1, "first"), note(2, 1, "second"))).build());
+        cacheManager.addNoteDto(note(1, 1, "first"));
+        cacheManager.addNoteDto(note(2, 1, "second"));
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(7).name("other").notes(List.of()).build());
+
+        invalidationTransport.listener.accept(new CacheInvalidation(1, 1, false));
+        assertNull(cacheManager.getNoteFromCache(1));
+        assertNull(cacheManager.getNoteBookFromCache(1));
+        assertNotNull(cacheManager.getNoteFromCache(2));
+        assertNotNull(cacheManager.getNoteBookFromCache(7));
+
+        invalidationTransport.listener.accept(new CacheInvalidation(1, 2, true));
+        assertNull(cacheManager.getNoteFromCache(2));
+        // note loaded before its deletion is not cached again
+        cacheManager.cacheLoadedNote(note(2, 1, "second"));
+        assertNull(cacheManager.getNoteFromCache(2));
+
+        invalidationTransport.listener.accept(new CacheInvalidation(7, null, true));
+        assertNull(cacheManager.getNoteBookFromCache(7));
+    }
+
+    @Test
+    public void evictedNotebookKeptOffHeapTest() {
+        ReflectionTestUtils.setField(cacheManager, "noteBookSizeMb", 0);
+        ReflectionTestUtils.setField(cacheManager, "noteBookOffHeapSizeMb", 1);
+        ReflectionTestUtils.invokeMethod(cacheManager, "configureCaches");
+        Cache<?, ?> noteBookCache = (Cache<?, ?>) ReflectionTestUtils.getField(cacheManager, "noteBookCache");
+        NoteDto note = NoteDto.builder().id(5).NotebookId(3).title("title").body("b\u00f6dy").tags(List.of("tag"))
+                .createdTime(new Date(1000)).lastModified(new Date(2000)).version(4).build();
+        NoteDto untitled = NoteDto.builder().id(6).NotebookId(3).build();
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(3).name("notebook").notes(List.of(note, untitled)).build());
+        noteBookCache.cleanUp();
+        assertNull(cacheManager.getNoteBookFromCache(3));
+
+        NotebookDto promoted = cacheManager.getNoteBook(3);
+        assertEquals("notebook", promoted.getName());
+        assertEquals(List.of(note, untitled), promoted.getNotes());
+        assertEquals(0, dtoLoader.notebookLoads.get());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "notebooks-offheap").tag("result", "hit")
+                .functionCounter().count());
+
+        noteBookCache.cleanUp();
+        assertTrue(meterRegistry.get("cache.size.bytes").tag("cache", "notebooks-offheap").gauge().value() > 0);
+        assertEquals(List.of(promoted), cacheManager.getNoteBooks(List.of(3)));
+
+        // changed notebook is not read from off heap
+        noteBookCache.cleanUp();
+        cacheManager.removeNoteFromCache(3, 6);
+        assertNull(cacheManager.getNoteBook(3));
+        assertEquals(0, meterRegistry.get("cache.size.bytes").tag("cache", "notebooks-offheap").gauge().value());
+    }
+
+    @Test
+    public void notebooksEvictedByWeightTest() {
+        meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(cacheManager, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(cacheManager, "noteBookSizeMb", 1);
+        ReflectionTestUtils.invokeMethod(cacheManager, "configureCaches");
+        Cache<?, ?> noteBookCache = (Cache<?, ?>) ReflectionTestUtils.getField(cacheManager, "noteBookCache");
+        String body = "b".repeat(400_000);
+
+        cacheManager.addNoteBookDto(NotebookDto.builder().id(1).name("first").notes(List.of()).build());
+        noteBookCache.cleanUp();
+        double emptySize = notebooksWeightedSize();
+        assertTrue(emptySize > 0 && emptySize < 1000);
+
+        // weight follows the notes patched into cached notebook
+        cacheManager.addNoteDto(NoteDto.builder().id(10).NotebookId(1).title("big").body(body).version(1).build());
+        noteBookCache.cleanUp();
+        assertTrue(notebooksWeightedSize() > emptySize + body.length());
+        cacheManager.removeNoteFromCache(1, 10);
+        noteBookCache.cleanUp();
+        assertEquals(emptySize, notebooksWeightedSize());
+
+        List<NoteDto> bigNotes = List.of(NoteDto.builder().id(20).NotebookId(2).title("big").body(body).build(),
+                NoteDto.builder().id(21).NotebookId(2).title("big").body(body).build());
+        for (int id = 2; id <= 4; id++)
+            cacheManager.addNoteBookDto(NotebookDto.builder().id(id).name("big").notes(bigNotes).build());
+        noteBookCache.cleanUp();
+        assertTrue(notebooksWeightedSize() <= 1 << 20);
+        assertTrue(noteBookCache.estimatedSize() < 4);
+    }
+
+    private double notebooksWeightedSize() {
+        return meterRegistry.get("cache.size.bytes").tag("cache", "notebooks").gauge().value();
+    }
+
+    static class RecordingInvalidationTransport implements InvalidationTransport {
+        final List<CacheInvalidation> broadcast = new ArrayList<>();
+        Consumer<CacheInvalidation> listener;
+
+        @Override
+        public void broadcast(CacheInvalidation invalidation) {
+            broadcast.add(invalidation);
+        }
+
+        @Override
+        public void subscribe(Consumer<CacheInvalidation> listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * loads single note and single notebook with id 1, counting loads. notebook load may be held until released
+     */
+    static class CountingDtoLoader implements DtoLoader {
+        final AtomicInteger noteLoads = new AtomicInteger();
+        final AtomicInteger notebookLoads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(0);
+        CountDownLatch release = new CountDownLatch(0);
+        final List<List<Integer>> bulkLoads = new ArrayList<>();
+        Runnable duringBulkLoad = () -> {
+        };
+
+        @Override
+        public NoteDto loadNote(int id) {
+            if (id != 1)
+                return null;
+            noteLoads.incrementAndGet();
+            sleep();
+            return note(1, 1, "loaded");
+        }
+
+        @Override
+        public NotebookDto loadNotebook(int id) {
+            if (id != 1)
+                return null;
+            notebookLoads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sleep();
+            return NotebookDto.builder().id(1).name("notebook").notes(List.of(note(1, 1, "loaded"))).build();
+        }
+
+        @Override
+        public Map<Integer, NotebookDto> loadNotebooks(Collection<Integer> ids) {
+            bulkLoads.add(new ArrayList<>(ids));
+            duringBulkLoad.run();
+            return ids.stream().filter(id -> id == 1).collect(Collectors.toMap(id -> id, id ->
+                    NotebookDto.builder().id(id).name("notebook").notes(List.of(note(1, 1, "loaded"))).build()));
+        }
+
+        private static void sleep() {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static NoteDto note(int id, int notebookId, String title) {
+        return note(id, notebookId, title, 0);
+    }
+
+    private static NoteDto note(int id, int notebookId, String title, long version) {
+        return NoteDto.builder().id(id).NotebookId(notebookId).title(title).body("body").tags(List.of())
+                .version(version).build();
+    }
+}
@@ -0,0 +1,201 @@
+package com.task.knime;
+
+import com.task.knime.dto.ChangeEventDto;
+import com.task.knime.dto.ChangeType;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.events.EventSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeEventBusTest {
+
+    ChangeEventBus changeEventBus = new ChangeEventBus();
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    public void before() {
+        ReflectionTestUtils.setField(changeEventBus, "bufferSize", 4);
+        ReflectionTestUtils.setField(changeEventBus, "senderThreads", 1);
+        ReflectionTestUtils.setField(changeEventBus, "sendTimeout", Duration.ofMillis(100));
+        ReflectionTestUtils.setField(changeEventBus, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.invokeMethod(changeEventBus, "init");
+        ReflectionTestUtils.setField(changeEventBus, "sender", (Executor) Runnable::run);
+    }
+
+    @AfterEach
+    public void after() {
+        ReflectionTestUtils.invokeMethod(changeEventBus, "close");
+    }
+
+    @Test
+    public void publishedEventsSentToNotebookSubscribersTest() {
+        RecordingSink all = new RecordingSink();
+        RecordingSink notebook1 = new RecordingSink();
+        changeEventBus.subscribe(null, null, all);
+        changeEventBus.subscribe(1, null, notebook1);
+
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, 1);
+        changeEventBus.publishNote(ChangeType.NOTE_CREATED, note(10, 1, 0));
+        changeEventBus.publishNote(ChangeType.NOTE_UPDATED, note(20, 2, 3));
+
+        assertEquals(List.of(ChangeType.NOTEBOOK_CREATED, ChangeType.NOTE_CREATED, ChangeType.NOTE_UPDATED), all.types());
+        assertEquals(List.of(ChangeType.NOTEBOOK_CREATED, ChangeType.NOTE_CREATED), notebook1.types());
+        ChangeEventDto updated = all.events.get(2);
+        assertEquals(2, updated.getNotebookId());
+        assertEquals(20, updated.getNoteId());
+        assertEquals(3L, updated.getVersion());
+        assertEquals(all.events.get(0).getId() + 2, updated.getId());
+        assertEquals(3, meterRegistry.counter("events.published").count());
+    }
+
+    @Test
+    public void resumedFromLastEventIdTest() {
+        RecordingSink first = new RecordingSink();
+        ChangeEventBus.Subscription subscription = changeEventBus.subscribe(null, null, first);
+        changeEventBus.publishNote(ChangeType.NOTE_CREATED, note(10, 1, 0));
+        subscription.cancel();
+        changeEventBus.publishNote(ChangeType.NOTE_UPDATED, note(10, 1, 1));
+        changeEventBus.publishNote(ChangeType.NOTE_DELETED, 1, 10, 1);
+
+        RecordingSink resumed = new RecordingSink();
+        changeEventBus.subscribe(null, first.events.get(0).getId(), resumed);
+
+        assertEquals(List.of(ChangeType.NOTE_CREATED), first.types());
+        assertEquals(List.of(ChangeType.NOTE_UPDATED, ChangeType.NOTE_DELETED), resumed.types());
+        assertFalse(resumed.resynced);
+    }
+
+    @Test
+    public void resyncedWhenEventsNoLongerKeptTest() {
+        RecordingSink first = new RecordingSink();
+        ChangeEventBus.Subscription subscription = changeEventBus.subscribe(null, null, first);
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, 1);
+        subscription.cancel();
+        for (int i = 0; i < 4; i++)
+            changeEventBus.publishNote(ChangeType.NOTE_CREATED, note(i, 1, 0));
+
+        RecordingSink overwritten = new RecordingSink();
+        changeEventBus.subscribe(null, first.events.get(0).getId() - 1, overwritten);
+        RecordingSink previousRun = new RecordingSink();
+        changeEventBus.subscribe(null, 5L, previousRun);
+
+        assertTrue(overwritten.resynced);
+        assertTrue(overwritten.events.isEmpty());
+        assertTrue(previousRun.resynced);
+        assertEquals(2, meterRegistry.counter("events.resyncs").count());
+
+        // resynced subscription is cancelled
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_DELETED, 1);
+        assertTrue(overwritten.events.isEmpty());
+    }
+
+    @Test
+    public void failingSubscriberDroppedTest() {
+        RecordingSink failing = new RecordingSink();
+        failing.fail = true;
+        RecordingSink other = new RecordingSink();
+        changeEventBus.subscribe(null, null, failing);
+        changeEventBus.subscribe(null, null, other);
+
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, 1);
+        changeEventBus.publishNotebook(ChangeType.NOTEBOOK_DELETED, 1);
+
+        assertEquals(1, failing.events.size());
+        assertEquals(List.of(ChangeType.NOTEBOOK_CREATED, ChangeType.NOTEBOOK_DELETED), other.types());
+    }
+
+    @Test
+    public void blockedSubscriberDoesNotDelayOthersTest() throws Exception {
+        // single sender thread, which the blocked subscriber holds
+        ThreadPoolExecutor senderThreadPool = (ThreadPoolExecutor) ReflectionTestUtils.getField(changeEventBus,
+                "senderThreadPool");
+        ReflectionTestUtils.setField(changeEventBus, "sender", senderThreadPool);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch blockedResynced = new CountDownLatch(1);
+        changeEventBus.subscribe(null, null, new EventSink() {
+            @Override
+            public void send(ChangeEventDto event) throws IOException {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void resync() {
+                blockedResynced.countDown();
+            }
+        });
+        BlockingQueue<ChangeEventDto> received = new LinkedBlockingQueue<>();
+        changeEventBus.subscribe(null, null, new EventSink() {
+            @Override
+            public void send(ChangeEventDto event) {
+                received.add(event);
+            }
+
+            @Override
+            public void resync() {
+            }
+        });
+
+        try {
+            changeEventBus.publishNotebook(ChangeType.NOTEBOOK_CREATED, 1);
+            changeEventBus.publishNotebook(ChangeType.NOTEBOOK_DELETED, 1);
+            assertEquals(ChangeType.NOTEBOOK_CREATED, received.poll(5, TimeUnit.SECONDS).getType());
+            assertEquals(ChangeType.NOTEBOOK_DELETED, received.poll(5, TimeUnit.SECONDS).getType());
+            assertEquals(1, blockedResynced.getCount());
+        } finally {
+            unblock.countDown();
+        }
+        assertTrue(blockedResynced.await(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.counter("events.resyncs").count());
+        // thread started in place of the blocked one is stopped
+        assertEquals(1, senderThreadPool.getCorePoolSize());
+    }
+
+    private static NoteDto note(int id, int notebookId, long version) {
+        return NoteDto.builder().id(id).NotebookId(notebookId).version(version).build();
+    }
+
+    private static class RecordingSink implements EventSink {
+        final List<ChangeEventDto> events = new ArrayList<>();
+        boolean resynced;
+        boolean fail;
+
+        @Override
+        public void send(ChangeEventDto event) throws IOException {
+            events.add(event);
+            if (fail)
+                throw new IOException("closed");
+        }
+
+        @Override
+        public void resync() {
+            resynced = true;
+        }
+
+        List<ChangeType> types() {
+            return events.stream().map(ChangeEventDto::getType).collect(Collectors.toList());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.task.knime;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.task.knime.api.NoteController;
 import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NoteSearchHitDto;
 import com.task.knime.service.NoteService;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.Test;
@@ -10,18 +11,25 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -58,6 +66,27 @@ public class NoteControllerTest {
 
     }
 
+    @SneakyThrows
+    @Test
+    public void createNotesTest() {
+        List<NoteDto> noteDtos = Arrays.asList(
+                NoteDto.builder().body("first text").NotebookId(1).tags(List.of("tag1")).title("first").build(),
+                NoteDto.builder().body("second text").NotebookId(1).tags(List.of()).title("second").build());
+        when(noteService.createNotes(any())).thenReturn(noteDtos);
+
+        mockMvc.perform(post("/NoteBook/Notes")
+                .content(mapper.writeValueAsString(noteDtos))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[0].title").value("first"))
+                .andExpect(jsonPath("$[1].title").value("second"));
+
+        mockMvc.perform(post("/NoteBook/Notes")
+                .content("[{\"body\": \"no title\", \"notebookId\": 1}]")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
     @SneakyThrows
     @Test
     public void deleteNoteTest() {
@@ -69,4 +98,42 @@ public class NoteControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").value(1));
     }
+
+    @SneakyThrows
+    @Test
+    public void searchNotesTest() {
+        NoteSearchHitDto hit = NoteSearchHitDto.builder().noteId(3).notebookId(1).title("Shopping list").score(1.5f).build();
+        when(noteService.searchNotes(eq("shopping"), eq(1), isNull(), eq(20))).thenReturn(List.of(hit));
+
+        mockMvc.perform(get("/notebook/note/search")
+                .param("q", "shopping")
+                .param("noteBookId", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].noteId").value(3))
+                .andExpect(jsonPath("$[0].title").value(hit.getTitle()));
+    }
+
+    @SneakyThrows
+    @Test
+    public void conditionalGetNoteTest() {
+        NoteDto noteDto = NoteDto.builder().id(3).NotebookId(1).title("note").body("text").tags(List.of())
+                .version(2).lastModified(new Date(1_000_000)).build();
+        when(noteService.getNote(eq(3))).thenReturn(noteDto);
+
+        mockMvc.perform(get("/notebook/note").param("id", "3"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-2\""))
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED))
+                .andExpect(jsonPath("$.title").value("note"));
+
+        mockMvc.perform(get("/notebook/note").param("id", "3").header(HttpHeaders.IF_NONE_MATCH, "\"3-2\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/notebook/note").param("id", "3").header(HttpHeaders.IF_NONE_MATCH, "\"3-1\""))
+                .andExpect(status().isOk());
+        // last modified given by client does not validate the note
+        mockMvc.perform(get("/notebook/note").param("id", "3").header(HttpHeaders.IF_MODIFIED_SINCE,
+                "Thu, 01 Jan 1970 00:16:40 GMT"))
+                .andExpect(status().isOk());
+    }
 }
@@ -0,0 +1,247 @@
+package com.task.knime;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.NoteSearchHitDto;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteSearchRow;
+import com.task.knime.repository.NoteTombstoneRepository;
+import com.task.knime.search.NoteSearchIndex;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteSearchIndexTest {
+
+    NoteSearchIndex noteSearchIndex;
+
+    @BeforeEach
+    public void before() {
+        noteSearchIndex = open("", null, null);
+
+        noteSearchIndex.index(note(1, 1, "Shopping list", "milk and bread", "todo", "home"));
+        noteSearchIndex.index(note(2, 1, "Meeting notes", "discussed the shopping budget", "work"));
+        noteSearchIndex.index(note(3, 2, "Groceries", "remember the shopping bags", "todo"));
+    }
+
+    @AfterEach
+    public void after() {
+        ReflectionTestUtils.invokeMethod(noteSearchIndex, "close");
+    }
+
+    @Test
+    public void rankedSearchWithFiltersTest() {
+        List<NoteSearchHitDto> hits = noteSearchIndex.search("shopping", null, null, 10);
+        assertEquals(3, hits.size());
+        assertEquals(1, hits.get(0).getNoteId());
+        assertEquals("Shopping list", hits.get(0).getTitle());
+
+        assertEquals(List.of(1, 2), ids(noteSearchIndex.search("shopping", 1, null, 10)));
+        assertEquals(List.of(1, 3), ids(noteSearchIndex.search("shopping", null, List.of("todo"), 10)));
+        assertEquals(List.of(1), ids(noteSearchIndex.search("shopping", null, List.of("todo", "home"), 10)));
+    }
+
+    @Test
+    public void incrementalUpdatesTest() {
+        noteSearchIndex.index(note(2, 1, "Meeting notes", "discussed the budget", "work"));
+        noteSearchIndex.delete(3);
+        assertEquals(List.of(1), ids(noteSearchIndex.search("shopping", null, null, 10)));
+
+        noteSearchIndex.deleteNotebook(1, List.of(1, 2));
+        assertTrue(noteSearchIndex.search("shopping budget", null, null, 10).isEmpty());
+    }
+
+    @Test
+    public void updateAppliedAfterDeleteSkippedTest() {
+        // update of note 3 committed before its deletion, but its after commit callback runs last
+        noteSearchIndex.delete(3);
+        noteSearchIndex.index(versioned(note(3, 2, "Groceries", "remember the shopping bags", "todo"), 1));
+        assertEquals(List.of(1, 2), ids(noteSearchIndex.search("shopping", null, null, 10)));
+
+        noteSearchIndex.deleteNotebook(1, List.of(1, 2));
+        noteSearchIndex.index(versioned(note(1, 1, "Shopping list", "milk and bread", "todo"), 1));
+        assertTrue(noteSearchIndex.search("shopping", null, null, 10).isEmpty());
+    }
+
+    @Test
+    public void olderVersionAppliedLaterSkippedTest() {
+        noteSearchIndex.index(versioned(note(1, 1, "Shopping list", "fresh milk", "todo"), 2));
+        noteSearchIndex.index(versioned(note(1, 1, "Shopping list", "stale milk", "todo"), 1));
+        assertTrue(noteSearchIndex.search("stale", null, null, 10).isEmpty());
+        assertEquals(List.of(1), ids(noteSearchIndex.search("fresh", null, null, 10)));
+
+        // version no longer remembered is compared with the version kept in the document
+        ((Cache<?, ?>) ReflectionTestUtils.getField(noteSearchIndex, "indexedVersions")).invalidateAll();
+        noteSearchIndex.index(versioned(note(1, 1, "Shopping list", "stale milk", "todo"), 1));
+        assertTrue(noteSearchIndex.search("stale", null, null, 10).isEmpty());
+    }
+
+    @Test
+    public void notesWrittenDuringBuildNotOverwrittenTest() {
+        NoteRepository noteRepository = Mockito.mock(NoteRepository.class);
+        NoteSearchIndex built = open("", noteRepository, Mockito.mock(NoteTombstoneRepository.class));
+        try {
+            // written and deleted after the application started accepting requests, before the rows are streamed
+            built.index(versioned(note(1, 1, "Shopping list", "fresh milk"), 2));
+            built.delete(2);
+            when(noteRepository.streamAllForSearch()).thenReturn(Stream.of(
+                    row(1, 1, "Shopping list", "stale milk", null, 1), row(2, 1, "Shopping budget", "numbers", null, 0),
+                    row(3, 2, "Shopping bags", "remember", null, 0)));
+            built.build();
+
+            assertEquals(List.of(1, 3), ids(built.search("shopping", null, null, 10)));
+            assertTrue(built.search("stale", null, null, 10).isEmpty());
+        } finally {
+            ReflectionTestUtils.invokeMethod(built, "close");
+        }
+    }
+
+    @Test
+    public void buildFromTagRowsTest() {
+        NoteRepository noteRepository = Mockito.mock(NoteRepository.class);
+        when(noteRepository.streamAllForSearch()).thenReturn(Stream.of(
+                row(1, 1, "Shopping list", "milk", "todo"), row(1, 1, "Shopping list", "milk", "home"),
+                row(2, 1, "Shopping budget", "numbers", null)));
+        NoteSearchIndex built = open("", noteRepository, Mockito.mock(NoteTombstoneRepository.class));
+        try {
+            built.build();
+            assertEquals(List.of(1, 2), ids(built.search("shopping", null, null, 10)));
+            assertEquals(List.of(1), ids(built.search("shopping", null, List.of("todo", "home"), 10)));
+        } finally {
+            ReflectionTestUtils.invokeMethod(built, "close");
+        }
+    }
+
+    @Test
+    public void persistentIndexReconciledAfterCrashTest(@TempDir Path indexPath) throws IOException {
+        NoteRepository noteRepository = Mockito.mock(NoteRepository.class);
+        NoteTombstoneRepository noteTombstoneRepository = Mockito.mock(NoteTombstoneRepository.class);
+        when(noteRepository.streamAllForSearch()).thenReturn(Stream.of(
+                row(1, 1, "Shopping list", "milk", "todo"), row(2, 1, "Shopping budget", "numbers", null)));
+
+        long builtFrom = System.currentTimeMillis();
+        NoteSearchIndex crashed = open(indexPath.toString(), noteRepository, noteTombstoneRepository);
+        crashed.build();
+        long builtTo = System.currentTimeMillis();
+        // changes applied after the last commit are lost by the crash
+        crashed.index(note(3, 2, "Shopping bags", "remember", "todo"));
+        crashed.delete(1);
+        ((SearcherManager) ReflectionTestUtils.getField(crashed, "searcherManager")).close();
+        ((IndexWriter) ReflectionTestUtils.getField(crashed, "writer")).rollback();
+        ((Directory) ReflectionTestUtils.getField(crashed, "directory")).close();
+
+        when(noteRepository.streamChangedForSearch(any())).thenReturn(Stream.of(
+                row(3, 2, "Shopping bags", "remember", "todo")));
+        when(noteTombstoneRepository.findNoteIdsDeletedSince(any())).thenReturn(List.of(1));
+        NoteSearchIndex restarted = open(indexPath.toString(), noteRepository, noteTombstoneRepository);
+        try {
+            restarted.build();
+            assertEquals(List.of(2, 3), ids(restarted.search("shopping", null, null, 10)));
+
+            verify(noteRepository, Mockito.times(1)).streamAllForSearch();
+            ArgumentCaptor<Date> since = ArgumentCaptor.forClass(Date.class);
+            verify(noteRepository).streamChangedForSearch(since.capture());
+            assertTrue(since.getValue().getTime() >= builtFrom - 32000);
+            assertTrue(since.getValue().getTime() <= builtTo - 32000);
+        } finally {
+            ReflectionTestUtils.invokeMethod(restarted, "close");
+        }
+    }
+
+    @Test
+    public void persistentIndexWithoutWatermarkRebuiltTest(@TempDir Path indexPath) {
+        NoteSearchIndex legacy = open(indexPath.toString(), null, null);
+        legacy.index(note(1, 1, "Shopping list", "milk", "todo"));
+        ReflectionTestUtils.invokeMethod(legacy, "close");
+
+        NoteRepository noteRepository = Mockito.mock(NoteRepository.class);
+        when(noteRepository.streamAllForSearch()).thenReturn(Stream.of(row(2, 1, "Shopping budget", "numbers", null)));
+        NoteSearchIndex rebuilt = open(indexPath.toString(), noteRepository, Mockito.mock(NoteTombstoneRepository.class));
+        try {
+            rebuilt.build();
+            assertEquals(List.of(2), ids(rebuilt.search("shopping", null, null, 10)));
+            verify(noteRepository, never()).streamChangedForSearch(any());
+        } finally {
+            ReflectionTestUtils.invokeMethod(rebuilt, "close");
+        }
+    }
+
+    private static NoteSearchIndex open(String indexPath, NoteRepository noteRepository,
+                                        NoteTombstoneRepository noteTombstoneRepository) {
+        NoteSearchIndex index = new NoteSearchIndex();
+        ReflectionTestUtils.setField(index, "indexPath", indexPath);
+        ReflectionTestUtils.setField(index, "writeTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(index, "clockSkewMillis", 2000L);
+        ReflectionTestUtils.setField(index, "changesRetentionDays", 30);
+        ReflectionTestUtils.setField(index, "noteRepository", noteRepository);
+        ReflectionTestUtils.setField(index, "noteTombstoneRepository", noteTombstoneRepository);
+        ReflectionTestUtils.invokeMethod(index, "open");
+        return index;
+    }
+
+    private static NoteSearchRow row(int noteId, int notebookId, String title, String body, String tag) {
+        return row(noteId, notebookId, title, body, tag, 0);
+    }
+
+    private static NoteSearchRow row(int noteId, int notebookId, String title, String body, String tag, long version) {
+        return new NoteSearchRow() {
+            public int getNoteId() {
+                return noteId;
+            }
+
+            public int getNotebookId() {
+                return notebookId;
+            }
+
+            public String getTitle() {
+                return title;
+            }
+
+            public String getBody() {
+                return body;
+            }
+
+            public String getTag() {
+                return tag;
+            }
+
+            public long getVersion() {
+                return version;
+            }
+        };
+    }
+
+    private static List<Integer> ids(List<NoteSearchHitDto> hits) {
+        return hits.stream().map(NoteSearchHitDto::getNoteId).sorted().collect(Collectors.toList());
+    }
+
+    private static NoteDto versioned(NoteDto note, long version) {
+        note.setVersion(version);
+        return note;
+    }
+
+    private static NoteDto note(int id, int notebookId, String title, String body, String... tags) {
+        return NoteDto.builder().id(id).NotebookId(notebookId).title(title).body(body).tags(List.of(tags)).build();
+    }
+}
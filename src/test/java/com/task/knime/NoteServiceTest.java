@@ -2,16 +2,24 @@ package com.task.knime;
 
 
 import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
 import com.task.knime.dto.NoteDto;
 import com.task.knime.dto.TagsNoteDto;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.exception.IllegalFieldException;
+import com.task.knime.exception.IllegalTagModificationException;
 import com.task.knime.exception.ResourceNotFoundException;
 import com.task.knime.model.NoteEntity;
 import com.task.knime.model.NotebookEntity;
 import com.task.knime.model.TagEntity;
 import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteTombstoneRepository;
 import com.task.knime.repository.NotebookRepository;
-import com.task.knime.repository.TagRepository;
+import com.task.knime.search.NoteSearchIndex;
 import com.task.knime.service.NoteService;
+import com.task.knime.service.ServiceUtils;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -19,11 +27,16 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -37,15 +50,34 @@ public class NoteServiceTest {
     @Mock
     NoteRepository noteRepository;
 
+    @Mock
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    @Mock
+    ChangeEventBus changeEventBus;
+
     @Mock
     NotebookRepository notebookRepository;
 
     @Mock
-    TagRepository tagRepository;
+    TagDictionary tagDictionary;
 
     @Mock
     CacheManager cacheManager;
 
+    @Mock
+    TagIndex tagIndex;
+
+    @Mock
+    NoteSearchIndex noteSearchIndex;
+
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void before() {
+        ReflectionTestUtils.invokeMethod(noteService, "init");
+    }
 
     @Test
     public void createNoteTest() {
@@ -60,8 +92,8 @@ public class NoteServiceTest {
 
         when(notebookRepository.findById(eq(noteDto.getNotebookId()))).thenReturn(Optional.of(notebookEntity));
         when(noteRepository.save(any(NoteEntity.class))).thenReturn(noteEntity);
+        stubTagDictionary();
 
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
         Mockito.doNothing().when(cacheManager).addNoteDto(any());
         NoteDto fetchedNote = noteService.createNote(noteDto);
 
@@ -70,6 +102,42 @@ public class NoteServiceTest {
         assertEquals(fetchedNote.getTags().get(0), noteDto.getTags().get(0));
     }
 
+    @Test
+    public void createNotesTest() {
+        ReflectionTestUtils.setField(noteService, "maxBulkSize", 10);
+        NotebookEntity notebookEntity = new NotebookEntity("The notebook");
+        NoteDto first = NoteDto.builder().body("first text").NotebookId(notebookEntity.getId())
+                .tags(Arrays.asList("tag1", "tag2")).title("first").build();
+        NoteDto second = NoteDto.builder().body("second text").NotebookId(notebookEntity.getId()).title("second").build();
+
+        when(notebookRepository.findAllById(eq(Set.of(notebookEntity.getId())))).thenReturn(List.of(notebookEntity));
+        stubTagDictionary();
+
+        List<NoteDto> createdNotes = noteService.createNotes(Arrays.asList(first, second));
+
+        assertEquals(2, createdNotes.size());
+        assertEquals(first.getTitle(), createdNotes.get(0).getTitle());
+        assertEquals(Set.copyOf(first.getTags()), Set.copyOf(createdNotes.get(0).getTags()));
+        assertTrue(createdNotes.get(1).getTags().isEmpty());
+        Mockito.verify(noteRepository).saveAll(any());
+        Mockito.verify(cacheManager).addNoteDtos(eq(notebookEntity.getId()), eq(createdNotes));
+        Mockito.verify(cacheManager, Mockito.never()).addNoteDto(any());
+        Mockito.verify(noteSearchIndex).indexAll(createdNotes);
+
+        assertThrows(IllegalFieldException.class, () -> noteService.createNotes(Collections.nCopies(11, second)));
+    }
+
+    @Test
+    public void createNotesWithNotExistedNotebook() {
+        ReflectionTestUtils.setField(noteService, "maxBulkSize", 10);
+        NoteDto noteDto = NoteDto.builder().body("text").NotebookId(5).title("title").build();
+        when(notebookRepository.findAllById(any())).thenReturn(List.of());
+
+        ResourceNotFoundException exception = assertThrows(ResourceNotFoundException.class,
+                () -> noteService.createNotes(List.of(noteDto)));
+        assertTrue(exception.getMessage().contains("notebook with id 5 does not exist"));
+    }
+
     @Test
     public void deleteNotebook() {
         int noteId = 1;
@@ -78,7 +146,7 @@ public class NoteServiceTest {
 
         when(noteRepository.existsById(eq(noteId))).thenReturn(true);
         when(noteRepository.getById(eq(noteId))).thenReturn(noteEntity);
-        Mockito.doNothing().when(cacheManager).removeNoteBookFromCache(notebookEntity.getId());
+        Mockito.doNothing().when(cacheManager).removeNoteFromCache(notebookEntity.getId(), noteId);
 
         Mockito.doNothing().when(noteRepository).deleteById(noteId);
         int deletedId = noteService.deleteNote(noteId);
@@ -101,10 +169,7 @@ public class NoteServiceTest {
         NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", notebookEntity, new Date(), new Date());
 
 
-        when(cacheManager.getNoteFromCache(eq(noteId))).thenReturn(null);
-        when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
-        Mockito.doNothing().when(cacheManager).addNoteDto(any());
+        when(cacheManager.getNote(eq(noteId))).thenReturn(ServiceUtils.transformFromNoteEntityToDto(noteEntity));
 
         NoteDto noteDto = noteService.getNote(noteId);
 
@@ -112,6 +177,15 @@ public class NoteServiceTest {
         assertEquals(noteEntity.getTitle(), noteDto.getTitle());
     }
 
+    @Test
+    public void getNotExistedNoteTest() {
+        int noteId = 1;
+        when(cacheManager.getNote(eq(noteId))).thenReturn(null);
+
+        ResourceNotFoundException exception = assertThrows(ResourceNotFoundException.class, () -> noteService.getNote(noteId));
+        assertTrue(exception.getMessage().contains("note with id " + noteId + " does not exist"));
+    }
+
     @Test
     public void updateNoteTest() {
         int noteId = 1;
@@ -119,24 +193,53 @@ public class NoteServiceTest {
                 .id(noteId).title("new title").build();
         NotebookEntity notebookEntity = new NotebookEntity("notebookName");
         NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", notebookEntity, new Date(), new Date());
-        TagEntity tagEntity = new TagEntity("new tag", noteEntity);
-
+        noteEntity.addTag(new TagEntity(1, "old tag"));
 
         when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
-        Mockito.doNothing().when(tagRepository).deleteTagsWithIds(any());
-        when(tagRepository.saveAll(any())).thenReturn(Arrays.asList(tagEntity));
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
+        stubTagDictionary();
         Mockito.doNothing().when(cacheManager).addNoteDto(any());
-        NoteEntity updatedNoteEntity1 = noteService.getUpdatedNoteEntity(noteId, noteDto);
-        when(noteRepository.save(any(NoteEntity.class))).thenReturn(updatedNoteEntity1);
+        when(noteRepository.saveAndFlush(any(NoteEntity.class))).thenReturn(noteEntity);
         NoteDto updatedNote = noteService.updateNote(noteId, noteDto);
 
         assertEquals(updatedNote.getBody(), noteDto.getBody());
         assertEquals(updatedNote.getTitle(), noteDto.getTitle());
-        assertEquals(updatedNote.getTags().get(0), noteDto.getTags().get(0));
+        assertEquals(updatedNote.getTags(), noteDto.getTags());
+        Mockito.verify(tagDictionary).intern(eq(Set.of("new tag")));
+        Mockito.verify(tagIndex).removeNoteTags(anyInt(), anyInt(), eq(Set.of("old tag")));
 
     }
 
+    @Test
+    public void unchangedNoteNotWrittenTest() {
+        int noteId = 1;
+        NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", new NotebookEntity("notebookName"), new Date(), new Date());
+        noteEntity.addTags(List.of(new TagEntity(1, "tag1"), new TagEntity(2, "tag2")));
+        Date lastModified = noteEntity.getLastModified();
+        when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
+
+        NoteDto noteDto = NoteDto.builder().title("noteTitle").body("some text").tags(List.of("tag2", "tag1")).build();
+        assertEquals("noteTitle", noteService.updateNote(noteId, noteDto).getTitle());
+        noteService.updateNotePartial(noteId, Map.of("body", "some text"));
+        noteService.addTagsToNote(TagsNoteDto.builder().noteId(noteId).tags(Set.of("tag1")).build());
+        noteService.deleteTagsFromNote(TagsNoteDto.builder().noteId(noteId).tags(Set.of("tag3")).build());
+
+        assertSame(lastModified, noteEntity.getLastModified());
+        Mockito.verify(noteRepository, Mockito.never()).saveAndFlush(any());
+        Mockito.verifyNoInteractions(cacheManager, tagDictionary, tagIndex, noteSearchIndex);
+    }
+
+    @Test
+    public void tagsOfNotExistedNoteNotInternedTest() {
+        int noteId = 1;
+        when(noteRepository.findById(eq(noteId))).thenReturn(Optional.empty());
+
+        NoteDto noteDto = NoteDto.builder().title("title").body("body").tags(List.of("new tag")).build();
+        assertThrows(ResourceNotFoundException.class, () -> noteService.updateNote(noteId, noteDto));
+        assertThrows(ResourceNotFoundException.class, () -> noteService.addTagsToNote(
+                TagsNoteDto.builder().noteId(noteId).tags(Set.of("new tag")).build()));
+        Mockito.verifyNoInteractions(tagDictionary);
+    }
+
     @Test
     public void partialNoteUpdateTest() {
         int noteId = 1;
@@ -149,8 +252,7 @@ public class NoteServiceTest {
         NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", notebookEntity, new Date(), new Date());
 
         when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
-        when(noteRepository.save(any(NoteEntity.class))).thenReturn(noteEntity);
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
+        when(noteRepository.saveAndFlush(any(NoteEntity.class))).thenReturn(noteEntity);
         Mockito.doNothing().when(cacheManager).addNoteDto(any());
 
         NoteDto updatedNote = noteService.updateNotePartial(noteId, valuesByFieldsMap);
@@ -158,6 +260,24 @@ public class NoteServiceTest {
         assertEquals(updatedNote.getTitle(), updatedTitle);
     }
 
+    @Test
+    public void partialNoteUpdateOfDatesTest() {
+        int noteId = 1;
+        NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", new NotebookEntity("notebookName"), new Date(), new Date());
+        when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
+        when(noteRepository.saveAndFlush(any(NoteEntity.class))).thenReturn(noteEntity);
+
+        NoteDto updatedNote = noteService.updateNotePartial(noteId,
+                Map.of("createdAt", "1000", "lastModified", "1970-01-01T00:00:02Z"));
+        assertEquals(new Date(1000), updatedNote.getCreatedTime());
+        assertEquals(new Date(2000), updatedNote.getLastModified());
+
+        assertThrows(IllegalFieldException.class, () -> noteService.updateNotePartial(noteId, Map.of("createdAt", "yesterday")));
+        assertThrows(IllegalFieldException.class, () -> noteService.updateNotePartial(noteId, Map.of("version", "7")));
+        assertThrows(IllegalTagModificationException.class, () -> noteService.updateNotePartial(noteId, Map.of("tags", "tag1")));
+        assertEquals(0, noteEntity.getVersion());
+    }
+
     @Test
     public void addTagsToNoteTest() {
         int noteId = 1;
@@ -167,8 +287,8 @@ public class NoteServiceTest {
         NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", notebookEntity, new Date(), new Date());
 
         when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
-        when(noteRepository.save(any(NoteEntity.class))).thenReturn(noteEntity);
-        when(tagRepository.saveAll(any())).thenReturn(null);
+        when(noteRepository.saveAndFlush(any(NoteEntity.class))).thenReturn(noteEntity);
+        stubTagDictionary();
         NoteDto noteDto = noteService.addTagsToNote(tagsNoteDto);
 
         assertEquals(noteDto.getTags().size(), 2);
@@ -182,20 +302,12 @@ public class NoteServiceTest {
         TagsNoteDto tagsNoteDto = TagsNoteDto.builder().noteId(noteId).tags(tagsToDelete).build();
         NotebookEntity notebookEntity = new NotebookEntity("notebookName");
         NoteEntity noteEntity = new NoteEntity("noteTitle", "some text", notebookEntity, new Date(), new Date());
-        TagEntity tagEntity = new TagEntity("tag1", noteEntity);
-        TagEntity tagEntity2 = new TagEntity("tag2", noteEntity);
-        TagEntity tagEntity3 = new TagEntity("tag3", noteEntity);
-
-        List<TagEntity> tagEntities = List.of(tagEntity, tagEntity2, tagEntity3);
-        tagEntities.forEach(tag -> tag.setNote(noteEntity));
-
+        TagEntity tagEntity3 = new TagEntity(3, "tag3");
+        noteEntity.addTags(List.of(new TagEntity(1, "tag1"), new TagEntity(2, "tag2"), tagEntity3));
 
         when(noteRepository.findById(eq(noteId))).thenReturn(Optional.of(noteEntity));
-        when(tagRepository.findAllById(Arrays.asList(tagEntity.getId(),tagEntity2.getId()))).thenReturn(Arrays.asList(tagEntity, tagEntity2));
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
         Mockito.doNothing().when(cacheManager).addNoteDto(any());
-        Mockito.doNothing().when(tagRepository).deleteTagsWithIds(any());
-        when(noteRepository.save(any(NoteEntity.class))).thenReturn(noteEntity);
+        when(noteRepository.saveAndFlush(any(NoteEntity.class))).thenReturn(noteEntity);
 
         NoteDto noteDto = noteService.deleteTagsFromNote(tagsNoteDto);
 
@@ -204,4 +316,11 @@ public class NoteServiceTest {
 
     }
 
+    private void stubTagDictionary() {
+        when(tagDictionary.intern(anyCollection())).then(invocation -> {
+            Collection<String> values = invocation.getArgument(0);
+            return values.stream().distinct().collect(Collectors.toMap(value -> value, value -> new TagEntity(value)));
+        });
+    }
+
 }
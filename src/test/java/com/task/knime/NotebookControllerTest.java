@@ -2,8 +2,11 @@ package com.task.knime;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.task.knime.api.NoteBookController;
+import com.task.knime.cache.ResourceVersion;
 import com.task.knime.dto.NotebookDto;
+import com.task.knime.events.ChangeEventBus;
 import com.task.knime.service.NoteBookService;
+import com.task.knime.service.NotebookTransferService;
 import lombok.SneakyThrows;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
@@ -11,15 +14,30 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -30,6 +48,12 @@ public class NotebookControllerTest {
     @MockBean
     NoteBookService noteBookService;
 
+    @MockBean
+    NotebookTransferService notebookTransferService;
+
+    @MockBean
+    ChangeEventBus changeEventBus;
+
     @Autowired
     MockMvc mockMvc;
 
@@ -62,4 +86,65 @@ public class NotebookControllerTest {
                 .andExpect(jsonPath("$").value(1));
     }
 
+    @SneakyThrows
+    @Test
+    public void exportTest() {
+        String line = "{\"name\":\"some note\",\"id\":1,\"notes\":[]}\n";
+        when(notebookTransferService.exportNotebooks(any())).then(invocation -> {
+            invocation.getArgument(0, OutputStream.class).write(line.getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        });
+
+        MvcResult plain = mockMvc.perform(get("/noteBooks/export")).andReturn();
+        mockMvc.perform(asyncDispatch(plain))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(line));
+
+        MvcResult gzip = mockMvc.perform(get("/noteBooks/export").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andReturn();
+        byte[] compressed = mockMvc.perform(asyncDispatch(gzip))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(line, new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void conditionalGetNotebookTest() {
+        String eTag = "\"1-0-0\"";
+        when(noteBookService.getNotebookVersion(eq(1))).thenReturn(new ResourceVersion(eTag));
+        when(noteBookService.getNotebook(eq(1))).thenReturn(NotebookDto.builder().id(1).name("notebook").build());
+
+        mockMvc.perform(get("/NoteBook").param("id", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(jsonPath("$.name").value("notebook"));
+
+        mockMvc.perform(get("/NoteBook").param("id", "1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        // notebook is not assembled for not modified response
+        verify(noteBookService, times(1)).getNotebook(1);
+    }
+
+    @SneakyThrows
+    @Test
+    public void notebookWithDeletedNoteModifiedSinceTest() {
+        when(noteBookService.getNotebookVersion(eq(1))).thenReturn(new ResourceVersion("\"1-2-7f\""));
+        when(noteBookService.getNotebook(eq(1))).thenReturn(NotebookDto.builder().id(1).name("notebook").build());
+        mockMvc.perform(get("/NoteBook").param("id", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED));
+
+        // note deleted and notebook reloaded into cache, client validating only by time still gets the change
+        when(noteBookService.getNotebookVersion(eq(1))).thenReturn(new ResourceVersion("\"1-1-3a\""));
+        mockMvc.perform(get("/NoteBook").param("id", "1").header(HttpHeaders.IF_MODIFIED_SINCE,
+                "Thu, 01 Jan 2099 00:00:00 GMT"))
+                .andExpect(status().isOk());
+        verify(noteBookService, times(2)).getNotebook(1);
+    }
 }
@@ -2,27 +2,51 @@ package com.task.knime;
 
 
 import com.task.knime.cache.CacheManager;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.ChangesDto;
 import com.task.knime.dto.NoteDto;
 import com.task.knime.dto.NotebookDto;
+import com.task.knime.dto.NotebookPageDto;
+import com.task.knime.dto.NotebookSummaryDto;
+import com.task.knime.dto.StatsDto;
+import com.task.knime.dto.TagCountDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.exception.ChangesExpiredException;
+import com.task.knime.exception.IllegalFieldException;
 import com.task.knime.exception.ResourceNotFoundException;
 import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NoteTombstoneEntity;
 import com.task.knime.model.NotebookEntity;
 import com.task.knime.model.TagEntity;
+import com.task.knime.repository.NoteChange;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteTombstoneRepository;
 import com.task.knime.repository.NotebookRepository;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.search.NoteSearchIndex;
 import com.task.knime.service.NoteBookService;
+import com.task.knime.service.ServiceUtils;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -35,9 +59,30 @@ public class NotebookServiceTest {
     @Mock
     NotebookRepository notebookRepository;
 
+    @Mock
+    NoteRepository noteRepository;
+
+    @Mock
+    NoteTombstoneRepository noteTombstoneRepository;
+
+    @Mock
+    ChangeEventBus changeEventBus;
+
     @Mock
     CacheManager cacheManager;
 
+    @Mock
+    TagIndex tagIndex;
+
+    @Mock
+    TagDictionary tagDictionary;
+
+    @Mock
+    TagRepository tagRepository;
+
+    @Mock
+    NoteSearchIndex noteSearchIndex;
+
     @Test
     public void createNotebookTest() {
         String notebookName = "My notebook";
@@ -52,14 +97,21 @@ public class NotebookServiceTest {
         int id = 1;
         String notebookName = "My notebook";
         NotebookEntity notebookEntity = new NotebookEntity(notebookName);
-        when(cacheManager.getNoteBookFromCache(eq(id))).thenReturn(null);
-        when(notebookRepository.findById(eq(id))).thenReturn(Optional.of(notebookEntity));
+        when(cacheManager.getNoteBook(eq(id))).thenReturn(ServiceUtils.transformNotebookEntityToDto(notebookEntity));
         NotebookDto notebookDto = noteBookService.getNotebook(id);
         assertEquals(notebookDto.getName(), notebookEntity.getName());
         assertEquals(notebookDto.getNotes(), new ArrayList<>());
 
     }
 
+    @Test
+    public void getNotExistedNotebook() {
+        int id = 1;
+        when(cacheManager.getNoteBook(eq(id))).thenReturn(null);
+        ResourceNotFoundException exception = assertThrows(ResourceNotFoundException.class, () -> noteBookService.getNotebook(id));
+        assertTrue(exception.getMessage().contains("notebook with id " + id + " does not exist"));
+    }
+
     @Test
     public void getNoteBookWithTag() {
         String notebookName = "My notebook";
@@ -71,8 +123,8 @@ public class NotebookServiceTest {
         NoteEntity note1 = new NoteEntity("First Note", "some random text", notebookEntity, new Date(), new Date());
         NoteEntity note2 = new NoteEntity("Second Note", "some random text", notebookEntity, new Date(), new Date());
 
-        TagEntity tag1 = new TagEntity(firstTag, note1);
-        TagEntity tag2 = new TagEntity(secondTag, note2);
+        TagEntity tag1 = new TagEntity(1, firstTag);
+        TagEntity tag2 = new TagEntity(2, secondTag);
 
         note1.addTag(tag1);
         note2.addTag(tag2);
@@ -81,10 +133,12 @@ public class NotebookServiceTest {
         notebookEntity.addNote(note2);
 
 
-        when(cacheManager.getNoteBookFromCache(eq(noteBookId))).thenReturn(null);
+        when(cacheManager.getNoteBookNameFromCache(eq(noteBookId))).thenReturn(null);
         when(notebookRepository.findById(eq(noteBookId))).thenReturn(Optional.of(notebookEntity));
-        Mockito.doNothing().when(cacheManager).addNoteBookDto(any());
-        NotebookDto notebooksByTag = noteBookService.getNotebooksByTag(noteBookId, firstTag);
+        when(tagDictionary.findIds(eq(Set.of(firstTag)))).thenReturn(Map.of(firstTag, tag1.getId()));
+        when(noteRepository.findAllWithAnyTag(eq(noteBookId), argThat(ids -> List.copyOf(ids).equals(List.of(tag1.getId())))))
+                .thenReturn(List.of(note1));
+        NotebookDto notebooksByTag = noteBookService.getNotebooksByTag(noteBookId, List.of(firstTag), TagMatch.ANY);
 
         assertEquals(notebooksByTag.getNotes().size(), 1);
         assertEquals(notebooksByTag.getName(), notebookEntity.getName());
@@ -108,7 +162,7 @@ public class NotebookServiceTest {
         note2.setNotebook(notebookEntity2);
 
         List<NotebookEntity> notebookEntities = Arrays.asList(notebookEntity, notebookEntity2);
-        when(notebookRepository.findAllById(any())).thenReturn(notebookEntities);
+        when(cacheManager.getNoteBooks(any())).thenReturn(ServiceUtils.transformNotebooksEntityToDto(notebookEntities));
         List<NotebookDto> notebooks = noteBookService.getNotebooks(Arrays.asList(notebookEntity.getId(), notebookEntity2.getId()));
 
         assertEquals(notebooks.size(), 2);
@@ -141,5 +195,182 @@ public class NotebookServiceTest {
 
     }
 
+    @Test
+    public void getNotebooksPage() {
+        ReflectionTestUtils.setField(noteBookService, "maxPageSize", 500);
+        List<NotebookSummaryDto> summaries = Arrays.asList(new NotebookSummaryDto(1, "first", 2),
+                new NotebookSummaryDto(2, "second", 0));
+        when(notebookRepository.findNotebookSummaries(eq(0), any())).thenReturn(summaries);
+
+        NotebookPageDto page = noteBookService.getNotebooks(0, 2, false);
+        assertEquals(2, page.getNotebooks().size());
+        assertEquals(2, page.getNotebooks().get(0).getNoteCount());
+        assertNull(page.getNotebooks().get(0).getNotes());
+        assertEquals(2, page.getNextAfterId());
+
+        when(notebookRepository.findNotebookSummaries(eq(2), any())).thenReturn(new ArrayList<>());
+        assertNull(noteBookService.getNotebooks(2, 2, false).getNextAfterId());
+    }
+
+    @Test
+    public void getNoteBookWithAllTagsAndCachedName() {
+        int noteBookId = 1;
+        String cachedName = "My notebook";
+        when(cacheManager.getNoteBookNameFromCache(eq(noteBookId))).thenReturn(cachedName);
+        when(tagDictionary.findIds(eq(Set.of("tag1", "tag2")))).thenReturn(Map.of("tag1", 1));
+
+        // tag2 is not in the dictionary, so no note has all the tags and database is not queried
+        NotebookDto notebooksByTag = noteBookService.getNotebooksByTag(noteBookId, List.of("tag1", "tag2", "tag1"), TagMatch.ALL);
+        assertEquals(cachedName, notebooksByTag.getName());
+        assertTrue(notebooksByTag.getNotes().isEmpty());
+        Mockito.verifyNoInteractions(noteRepository);
+
+        assertThrows(IllegalFieldException.class, () -> noteBookService.getNotebooksByTag(noteBookId, List.of(), TagMatch.ANY));
+    }
+
+    @Test
+    public void getNoteBookWithTagFromIndex() {
+        int noteBookId = 1;
+        NoteDto cachedNote = NoteDto.builder().id(10).NotebookId(noteBookId).title("cached").tags(List.of("tag1")).build();
+        NotebookEntity notebookEntity = new NotebookEntity("My notebook");
+        NoteEntity note = new NoteEntity("loaded", "some random text", notebookEntity, new Date(), new Date());
+        note.addTag(new TagEntity(1, "tag1"));
+        note.setId(11);
+
+        when(cacheManager.getNoteBookNameFromCache(eq(noteBookId))).thenReturn(null);
+        when(notebookRepository.findById(eq(noteBookId))).thenReturn(Optional.of(notebookEntity));
+        when(tagIndex.findNoteIds(eq(noteBookId), eq(Set.of("tag1")), eq(TagMatch.ANY)))
+                .thenReturn(Optional.of(RoaringBitmap.bitmapOf(10, 11)));
+        when(cacheManager.getNoteFromCache(10)).thenReturn(cachedNote);
+        when(noteRepository.findAllWithTagsByIdIn(eq(List.of(11)))).thenReturn(List.of(note));
+
+        NotebookDto notebooksByTag = noteBookService.getNotebooksByTag(noteBookId, List.of("tag1"), TagMatch.ANY);
+        assertEquals(2, notebooksByTag.getNotes().size());
+        assertEquals("cached", notebooksByTag.getNotes().get(0).getTitle());
+        assertEquals("loaded", notebooksByTag.getNotes().get(1).getTitle());
+        Mockito.verify(cacheManager).cacheLoadedNote(notebooksByTag.getNotes().get(1));
+    }
+
+    @Test
+    public void getStatsFromIndex() {
+        ReflectionTestUtils.setField(noteBookService, "maxTopTags", 100);
+        List<TagCountDto> topTags = List.of(new TagCountDto("tag1", 2));
+        when(cacheManager.getNoteBookNameFromCache(eq(1))).thenReturn("My notebook");
+        when(tagIndex.countNotes(eq(1))).thenReturn(OptionalLong.of(3));
+        when(tagIndex.findTopTags(eq(1), eq(100))).thenReturn(Optional.of(topTags));
+
+        StatsDto stats = noteBookService.getStats(1, 1000);
+        assertEquals(1, stats.getNotebookId());
+        assertEquals(3, stats.getNoteCount());
+        assertEquals(topTags, stats.getTopTags());
+        Mockito.verifyNoInteractions(noteRepository, tagRepository);
+    }
+
+    @Test
+    public void getStatsFromDatabaseWhileIndexNotBuilt() {
+        ReflectionTestUtils.setField(noteBookService, "maxTopTags", 100);
+        List<TagCountDto> topTags = List.of(new TagCountDto("tag1", 5), new TagCountDto("tag2", 1));
+        when(tagIndex.countNotes()).thenReturn(OptionalLong.empty());
+        when(tagIndex.findTopTags(eq(10))).thenReturn(Optional.empty());
+        when(noteRepository.count()).thenReturn(7L);
+        when(tagRepository.findTopTags(argThat(page -> page.getPageSize() == 10))).thenReturn(topTags);
+
+        StatsDto stats = noteBookService.getStats(null, 10);
+        assertNull(stats.getNotebookId());
+        assertEquals(7, stats.getNoteCount());
+        assertEquals(topTags, stats.getTopTags());
+
+        when(cacheManager.getNoteBookNameFromCache(eq(2))).thenReturn(null);
+        when(notebookRepository.existsById(eq(2))).thenReturn(false);
+        assertThrows(ResourceNotFoundException.class, () -> noteBookService.getStats(2, 10));
+    }
+
+    @Test
+    public void getChangesTest() {
+        ReflectionTestUtils.setField(noteBookService, "defaultPageSize", 1);
+        ReflectionTestUtils.setField(noteBookService, "maxPageSize", 500);
+        ReflectionTestUtils.setField(noteBookService, "writeTimeoutSeconds", 1);
+        ReflectionTestUtils.setField(noteBookService, "clockSkewMillis", 1000L);
+        ReflectionTestUtils.setField(noteBookService, "changesRetentionDays", 30);
+        long since = System.currentTimeMillis() - 60_000;
+        NotebookEntity notebookEntity = new NotebookEntity("My notebook");
+        NoteEntity note = new NoteEntity("changed", "some random text", notebookEntity, new Date(), new Date());
+        note.setId(7);
+        when(noteRepository.findChangedAfter(eq(new Date(since)), eq(0), any()))
+                .thenReturn(List.of(change(7, since + 100), change(8, since + 200)));
+        when(noteRepository.findAllWithTagsByIdIn(eq(List.of(7)))).thenReturn(List.of(note));
+        when(noteTombstoneRepository.findDeletedAfter(eq(new Date(since)), eq(0), any()))
+                .thenReturn(List.of(new NoteTombstoneEntity(9, 1, new Date(since + 50))));
+
+        ChangesDto changes = noteBookService.getChanges(String.valueOf(since), null);
+        assertTrue(changes.isHasMore());
+        assertEquals(List.of("changed"), changes.getNotes().stream().map(NoteDto::getTitle).collect(Collectors.toList()));
+        assertEquals(9, changes.getDeleted().get(0).getNoteId());
+        // changes are read up to the last returned one, deletions are all read and continue from the overlap start
+        String[] nextSince = changes.getNextSince().split("\\.");
+        assertEquals(List.of(String.valueOf(since + 100), "7", "0"), List.of(nextSince[0], nextSince[1], nextSince[3]));
+        long deletedAt = Long.parseLong(nextSince[2]);
+        assertTrue(deletedAt > since + 50 && deletedAt <= System.currentTimeMillis() - 2000);
+
+        assertThrows(IllegalFieldException.class, () -> noteBookService.getChanges("200.7", null));
+    }
+
+    @Test
+    public void getChangesExpiredTest() {
+        ReflectionTestUtils.setField(noteBookService, "changesRetentionDays", 30);
+        long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31);
+        assertThrows(ChangesExpiredException.class, () -> noteBookService.getChanges(String.valueOf(expired), null));
+        assertThrows(ChangesExpiredException.class, () -> noteBookService.getChanges("100", null));
+        verifyNoInteractions(noteRepository, noteTombstoneRepository);
+    }
+
+    @Test
+    public void getChangesFromScratchSkipsDeletionsTest() {
+        ReflectionTestUtils.setField(noteBookService, "defaultPageSize", 10);
+        ReflectionTestUtils.setField(noteBookService, "maxPageSize", 500);
+        ReflectionTestUtils.setField(noteBookService, "writeTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(noteBookService, "clockSkewMillis", 2000L);
+        ReflectionTestUtils.setField(noteBookService, "changesRetentionDays", 30);
+        when(noteRepository.findChangedAfter(eq(new Date(0)), eq(0), any())).thenReturn(List.of());
+
+        ChangesDto changes = noteBookService.getChanges("0", null);
+        assertTrue(changes.getDeleted().isEmpty());
+        assertFalse(changes.isHasMore());
+        verifyNoInteractions(noteTombstoneRepository);
+    }
+
+    @Test
+    public void getChangesRewoundByWriteTimeoutTest() {
+        ReflectionTestUtils.setField(noteBookService, "defaultPageSize", 10);
+        ReflectionTestUtils.setField(noteBookService, "maxPageSize", 500);
+        ReflectionTestUtils.setField(noteBookService, "writeTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(noteBookService, "clockSkewMillis", 2000L);
+        ReflectionTestUtils.setField(noteBookService, "changesRetentionDays", 30);
+        long now = System.currentTimeMillis();
+        when(noteRepository.findChangedAfter(eq(new Date(now - 60_000)), eq(0), any()))
+                .thenReturn(List.of(change(7, now - 1000)));
+        when(noteRepository.findAllWithTagsByIdIn(any())).thenReturn(List.of());
+        when(noteTombstoneRepository.findDeletedAfter(eq(new Date(now - 60_000)), eq(0), any())).thenReturn(List.of());
+
+        ChangesDto changes = noteBookService.getChanges(String.valueOf(now - 60_000), null);
+        // transaction that wrote before the read may still commit within the write timeout
+        long changedAt = Long.parseLong(changes.getNextSince().split("\\.")[0]);
+        assertTrue(changedAt >= now - 32_000 && changedAt <= System.currentTimeMillis() - 32_000);
+        assertFalse(changes.isHasMore());
+    }
+
+    private static NoteChange change(int id, long changedAt) {
+        return new NoteChange() {
+            @Override
+            public int getId() {
+                return id;
+            }
+
+            @Override
+            public Date getChangedAt() {
+                return new Date(changedAt);
+            }
+        };
+    }
 
 }
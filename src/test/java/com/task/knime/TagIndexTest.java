@@ -0,0 +1,128 @@
+package com.task.knime;
+
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.TagCountDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.repository.TagIndexEntry;
+import com.task.knime.repository.TagRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TagIndexTest {
+
+    @InjectMocks
+    TagIndex tagIndex;
+
+    @Mock
+    TagRepository tagRepository;
+
+    @BeforeEach
+    public void before() {
+        when(tagRepository.streamAllTagIndexEntries()).thenReturn(Stream.of(
+                entry(1, 10, "tag1"), entry(1, 10, "tag2"), entry(1, 11, "tag1"), entry(1, 13, null), entry(2, 20, "tag1")));
+        tagIndex.build();
+    }
+
+    @Test
+    public void findNoteIdsBuiltFromRepositoryTest() {
+        assertTrue(tagIndex.isReady());
+        assertEquals(RoaringBitmap.bitmapOf(10, 11), tagIndex.findNoteIds(1, List.of("tag1"), TagMatch.ANY).orElseThrow());
+        assertEquals(RoaringBitmap.bitmapOf(10), tagIndex.findNoteIds(1, List.of("tag1", "tag2"), TagMatch.ALL).orElseThrow());
+        assertEquals(RoaringBitmap.bitmapOf(10, 11), tagIndex.findNoteIds(1, List.of("tag1", "tag2"), TagMatch.ANY).orElseThrow());
+        assertTrue(tagIndex.findNoteIds(1, List.of("tag1", "tag3"), TagMatch.ALL).orElseThrow().isEmpty());
+        assertEquals(RoaringBitmap.bitmapOf(20), tagIndex.findNoteIds(2, List.of("tag1"), TagMatch.ANY).orElseThrow());
+    }
+
+    @Test
+    public void indexUpdatedByWritesTest() {
+        tagIndex.addNoteTags(1, 12, List.of("tag2", "tag3"));
+        assertEquals(RoaringBitmap.bitmapOf(10, 12), tagIndex.findNoteIds(1, List.of("tag2"), TagMatch.ANY).orElseThrow());
+
+        tagIndex.removeNoteTags(1, 10, List.of("tag2"));
+        assertEquals(RoaringBitmap.bitmapOf(12), tagIndex.findNoteIds(1, List.of("tag2"), TagMatch.ANY).orElseThrow());
+
+        tagIndex.replaceNoteTags(1, 11, List.of("tag3"));
+        assertEquals(RoaringBitmap.bitmapOf(10), tagIndex.findNoteIds(1, List.of("tag1"), TagMatch.ANY).orElseThrow());
+        assertEquals(RoaringBitmap.bitmapOf(11, 12), tagIndex.findNoteIds(1, List.of("tag3"), TagMatch.ANY).orElseThrow());
+
+        tagIndex.removeNote(1, 12);
+        assertEquals(RoaringBitmap.bitmapOf(11), tagIndex.findNoteIds(1, List.of("tag2", "tag3"), TagMatch.ANY).orElseThrow());
+
+        tagIndex.removeNotebook(2);
+        assertTrue(tagIndex.findNoteIds(2, List.of("tag1"), TagMatch.ANY).orElseThrow().isEmpty());
+    }
+
+    @Test
+    public void notesAndTagsCountedTest() {
+        assertEquals(3, tagIndex.countNotes(1).orElseThrow());
+        assertEquals(4, tagIndex.countNotes().orElseThrow());
+        assertEquals(List.of(new TagCountDto("tag1", 2), new TagCountDto("tag2", 1)),
+                tagIndex.findTopTags(1, 10).orElseThrow());
+        assertEquals(List.of(new TagCountDto("tag1", 3)), tagIndex.findTopTags(1).orElseThrow());
+
+        tagIndex.addNoteTags(1, 12, List.of("tag2", "tag3"));
+        tagIndex.addNoteTags(1, 12, List.of("tag2"));
+        tagIndex.removeNote(1, 10);
+        assertEquals(3, tagIndex.countNotes(1).orElseThrow());
+        assertEquals(List.of(new TagCountDto("tag1", 2), new TagCountDto("tag2", 1), new TagCountDto("tag3", 1)),
+                tagIndex.findTopTags(10).orElseThrow());
+
+        tagIndex.removeNotebook(2);
+        assertEquals(0, tagIndex.countNotes(2).orElseThrow());
+        assertEquals(3, tagIndex.countNotes().orElseThrow());
+        assertEquals(List.of(new TagCountDto("tag1", 1), new TagCountDto("tag2", 1)), tagIndex.findTopTags(2).orElseThrow());
+    }
+
+    @Test
+    public void noteRemovedDuringBuildNotRestoredTest() {
+        // note 10 is loaded, then deleted and note 11 untagged before the loaded notes are swapped in
+        when(tagRepository.streamAllTagIndexEntries()).thenReturn(Stream.of(
+                entry(1, 10, "tag1"), entry(1, 11, "tag1"), entry(1, 11, "tag2")).peek(entry -> {
+            if (entry.getNoteId() == 11 && "tag2".equals(entry.getValue())) {
+                assertFalse(tagIndex.isReady());
+                tagIndex.removeNote(1, 10);
+                tagIndex.removeNoteTags(1, 11, List.of("tag2"));
+                tagIndex.addNoteTags(1, 12, List.of("tag2"));
+            }
+        }));
+        tagIndex.build();
+
+        assertTrue(tagIndex.isReady());
+        assertEquals(RoaringBitmap.bitmapOf(11), tagIndex.findNoteIds(1, List.of("tag1"), TagMatch.ANY).orElseThrow());
+        assertEquals(RoaringBitmap.bitmapOf(12), tagIndex.findNoteIds(1, List.of("tag2"), TagMatch.ANY).orElseThrow());
+        assertEquals(2, tagIndex.countNotes(1).orElseThrow());
+        assertEquals(2, tagIndex.countNotes().orElseThrow());
+        assertEquals(List.of(new TagCountDto("tag1", 1), new TagCountDto("tag2", 1)), tagIndex.findTopTags(10).orElseThrow());
+    }
+
+    private static TagIndexEntry entry(int notebookId, int noteId, String value) {
+        return new TagIndexEntry() {
+            @Override
+            public int getNotebookId() {
+                return notebookId;
+            }
+
+            @Override
+            public int getNoteId() {
+                return noteId;
+            }
+
+            @Override
+            public String getValue() {
+                return value;
+            }
+        };
+    }
+}
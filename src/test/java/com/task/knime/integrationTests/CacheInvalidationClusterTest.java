@@ -0,0 +1,149 @@
+package com.task.knime.integrationTests;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.task.knime.KnimeApplication;
+import com.task.knime.cache.CacheManager;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.dto.TagMatch;
+import com.task.knime.exception.ResourceNotFoundException;
+import com.task.knime.service.NoteBookService;
+import com.task.knime.service.NoteService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * two instances of the service in the same jvm sharing one database, with invalidations carried by the table.
+ * instances are eventually consistent, so every read of the other instance waits for the change it checks.
+ * invalidations received by the second instance are counted, so the test counting them runs first
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CacheInvalidationClusterTest {
+
+    static ConfigurableApplicationContext first;
+
+    static ConfigurableApplicationContext second;
+
+    @BeforeAll
+    public static void start() {
+        first = startInstance();
+        second = startInstance();
+    }
+
+    @AfterAll
+    public static void stop() {
+        second.close();
+        first.close();
+    }
+
+    @Test
+    @Order(2)
+    public void changesOfOneInstanceInvalidateCachesOfOtherTest() {
+        NoteBookService firstNotebooks = first.getBean(NoteBookService.class);
+        NoteService firstNotes = first.getBean(NoteService.class);
+        NoteBookService secondNotebooks = second.getBean(NoteBookService.class);
+        NoteService secondNotes = second.getBean(NoteService.class);
+
+        int notebookId = firstNotebooks.createNotebook("shared").getId();
+        int noteId = firstNotes.createNote(note(notebookId, "first")).getId();
+        assertEquals("first", secondNotes.getNote(noteId).getTitle());
+        assertEquals(1, secondNotebooks.getNotebook(notebookId).getNotes().size());
+
+        firstNotes.updateNote(noteId, note(notebookId, "updated"));
+        await(() -> "updated".equals(secondNotes.getNote(noteId).getTitle()));
+        await(() -> "updated".equals(secondNotebooks.getNotebook(notebookId).getNotes().get(0).getTitle()));
+
+        int secondNoteId = secondNotes.createNote(note(notebookId, "second")).getId();
+        await(() -> firstNotebooks.getNotebook(notebookId).getNotes().size() == 2);
+
+        firstNotes.deleteNote(secondNoteId);
+        await(() -> isDeleted(() -> secondNotes.getNote(secondNoteId)));
+        await(() -> secondNotebooks.getNotebook(notebookId).getNotes().size() == 1);
+
+        firstNotebooks.deleteNoteBookById(notebookId);
+        await(() -> isDeleted(() -> secondNotebooks.getNotebook(notebookId)));
+        await(() -> isDeleted(() -> secondNotes.getNote(noteId)));
+    }
+
+    @Test
+    @Order(1)
+    public void readsOfOneInstanceDoNotInvalidateCachesOfOtherTest() {
+        NoteBookService firstNotebooks = first.getBean(NoteBookService.class);
+        NoteService firstNotes = first.getBean(NoteService.class);
+        CacheManager secondCache = second.getBean(CacheManager.class);
+        NoteService secondNotes = second.getBean(NoteService.class);
+        Counter secondReceived = second.getBean(MeterRegistry.class).counter("cache.invalidations.received");
+
+        double before = secondReceived.count();
+        int notebookId = firstNotebooks.createNotebook("read").getId();
+        NoteDto tagged = note(notebookId, "tagged");
+        tagged.setTags(List.of("read"));
+        int noteId = firstNotes.createNote(tagged).getId();
+        int sentinelNoteId = firstNotes.createNote(note(notebookId, "sentinel")).getId();
+        await(() -> secondReceived.count() >= before + 2);
+        secondNotes.getNote(noteId);
+
+        // tag filter on the first instance loads the note missing from its cache from the database
+        ((Cache<?, ?>) ReflectionTestUtils.getField(first.getBean(CacheManager.class), "noteCache")).invalidateAll();
+        assertEquals(1, firstNotebooks.getNotebooksByTag(notebookId, List.of("read"), TagMatch.ANY).getNotes().size());
+
+        // invalidations are sent in order, so any invalidation sent by the read reaches the second instance
+        // no later than the one of the following change
+        firstNotes.updateNote(sentinelNoteId, note(notebookId, "sentinel updated"));
+        await(() -> secondReceived.count() >= before + 3);
+        assertEquals(before + 3, secondReceived.count());
+        assertNotNull(secondCache.getNoteFromCache(noteId));
+    }
+
+    private static ConfigurableApplicationContext startInstance() {
+        return new SpringApplicationBuilder(KnimeApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=update",
+                        "--cache.invalidation.transport=table",
+                        "--cache.invalidation.poll-interval-millis=50",
+                        "--logging.level.org.hibernate.SQL=WARN",
+                        "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN");
+    }
+
+    private static boolean isDeleted(Runnable read) {
+        try {
+            read.run();
+            return false;
+        } catch (ResourceNotFoundException e) {
+            return true;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "instance caches were not invalidated");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static NoteDto note(int notebookId, String title) {
+        return NoteDto.builder().NotebookId(notebookId).title(title).body("body").tags(List.of()).build();
+    }
+}
@@ -1,20 +1,38 @@
 package com.task.knime.integrationTests;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.knime.dto.NotebookSummaryDto;
 import com.task.knime.model.NoteEntity;
+import com.task.knime.dto.NotebookDto;
 import com.task.knime.model.NotebookEntity;
+import com.task.knime.model.TagEntity;
 import com.task.knime.repository.NoteRepository;
 import com.task.knime.repository.NotebookRepository;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.service.NotebookTransferService;
+import com.task.knime.service.ServiceUtils;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 public class NoteBookRepositoryTest {
 
     @Autowired
@@ -23,6 +41,12 @@ public class NoteBookRepositoryTest {
     @Autowired
     NoteRepository noteRepository;
 
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    TestEntityManager testEntityManager;
+
     @AfterEach
     public void after() {
         notebookRepository.deleteAll();
@@ -62,4 +86,103 @@ public class NoteBookRepositoryTest {
         assertTrue(noteRepository.findById(notebook1.getId()).isEmpty());
     }
 
+    @Test
+    public void notebookSummariesKeysetPaginationTest() {
+        NotebookEntity notebook1 = notebookRepository.save(new NotebookEntity("first"));
+        NotebookEntity notebook2 = notebookRepository.save(new NotebookEntity("second"));
+        NotebookEntity notebook3 = notebookRepository.save(new NotebookEntity("third"));
+
+        noteRepository.save(new NoteEntity("First Note", "some random text", notebook1, new Date(), new Date()));
+        noteRepository.save(new NoteEntity("Second Note", "some random text", notebook1, new Date(), new Date()));
+        noteRepository.save(new NoteEntity("Third Note", "some random text", notebook3, new Date(), new Date()));
+
+        List<NotebookSummaryDto> firstPage = notebookRepository.findNotebookSummaries(0, PageRequest.of(0, 2));
+        assertEquals(2, firstPage.size());
+        assertEquals(notebook1.getId(), firstPage.get(0).getId());
+        assertEquals(2, firstPage.get(0).getNoteCount());
+        assertEquals(notebook2.getId(), firstPage.get(1).getId());
+        assertEquals(0, firstPage.get(1).getNoteCount());
+
+        List<NotebookSummaryDto> secondPage = notebookRepository.findNotebookSummaries(firstPage.get(1).getId(), PageRequest.of(0, 2));
+        assertEquals(1, secondPage.size());
+        assertEquals(notebook3.getName(), secondPage.get(0).getName());
+        assertEquals(1, secondPage.get(0).getNoteCount());
+    }
+
+    @Test
+    public void notebookWithNotesAndTagsLoadedBySingleStatementTest() {
+        NotebookEntity notebook1 = createNotebookWithTaggedNotes("first", 20);
+        NotebookEntity notebook2 = createNotebookWithTaggedNotes("second", 10);
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        Statistics statistics = testEntityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        NotebookDto notebookDto = ServiceUtils.transformNotebookEntityToDto(
+                notebookRepository.findWithNotesAndTagsById(notebook1.getId()).orElseThrow());
+        assertEquals(20, notebookDto.getNotes().size());
+        notebookDto.getNotes().forEach(note -> assertEquals(2, note.getTags().size()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        testEntityManager.clear();
+        statistics.clear();
+
+        List<NotebookDto> notebookDtos = ServiceUtils.transformNotebooksEntityToDto(
+                notebookRepository.findAllWithNotesAndTagsByIdIn(Arrays.asList(notebook1.getId(), notebook2.getId())));
+        assertEquals(2, notebookDtos.size());
+        assertEquals(30, notebookDtos.stream().mapToInt(notebook -> notebook.getNotes().size()).sum());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void exportStreamsNotebooksWithoutLoadingEntitiesTest() throws Exception {
+        NotebookEntity notebook1 = createNotebookWithTaggedNotes("first", 20);
+        NotebookEntity empty = notebookRepository.save(new NotebookEntity("empty"));
+        NotebookEntity notebook3 = createNotebookWithTaggedNotes("third", 5);
+        noteRepository.save(new NoteEntity("Untagged", "some random text", notebook3, new Date(), new Date()));
+        testEntityManager.flush();
+        testEntityManager.clear();
+
+        Statistics statistics = testEntityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        ObjectMapper mapper = new ObjectMapper();
+        NotebookTransferService transferService = new NotebookTransferService();
+        ReflectionTestUtils.setField(transferService, "notebookRepository", notebookRepository);
+        ReflectionTestUtils.setField(transferService, "objectMapper", mapper);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        assertEquals(3, transferService.exportNotebooks(outputStream));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, testEntityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        JsonNode first = mapper.readTree(lines[0]);
+        assertEquals(notebook1.getId(), first.get("id").asInt());
+        assertEquals(20, first.get("notes").size());
+        first.get("notes").forEach(note -> assertEquals(2, note.get("tags").size()));
+        JsonNode second = mapper.readTree(lines[1]);
+        assertEquals(empty.getName(), second.get("name").asText());
+        assertTrue(second.get("notes").isEmpty());
+        JsonNode third = mapper.readTree(lines[2]);
+        assertEquals(6, third.get("notes").size());
+        assertTrue(third.get("notes").get(5).get("tags").isEmpty());
+    }
+
+    private NotebookEntity createNotebookWithTaggedNotes(String name, int notesCount) {
+        NotebookEntity notebook = notebookRepository.save(new NotebookEntity(name));
+        TagEntity tag1 = tagRepository.findByValue("tag1").orElseGet(() -> tagRepository.save(new TagEntity("tag1")));
+        TagEntity tag2 = tagRepository.findByValue("tag2").orElseGet(() -> tagRepository.save(new TagEntity("tag2")));
+        for (int i = 0; i < notesCount; i++) {
+            NoteEntity note = new NoteEntity("Note " + i, "some random text", notebook, new Date(), new Date());
+            note.addTags(List.of(tag1, tag2));
+            noteRepository.save(note);
+        }
+        return notebook;
+    }
+
 }
@@ -1,19 +1,28 @@
 package com.task.knime.integrationTests;
 
+import com.task.knime.dto.TagCountDto;
 import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NoteTombstoneEntity;
 import com.task.knime.model.NotebookEntity;
+import com.task.knime.model.TagEntity;
+import com.task.knime.repository.NoteChange;
 import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NoteTombstoneRepository;
 import com.task.knime.repository.NotebookRepository;
+import com.task.knime.repository.TagRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
@@ -25,6 +34,12 @@ public class NoteRepositoryTest {
     @Autowired
     NoteRepository noteRepository;
 
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    NoteTombstoneRepository noteTombstoneRepository;
+
     NotebookEntity noteBook1;
     NotebookEntity noteBook2;
 
@@ -80,4 +95,100 @@ public class NoteRepositoryTest {
         assertEquals(0, noteRepository.findAll().size());
 
     }
+
+    @Test
+    public void findNotesByTagsTest() {
+        NoteEntity note1 = saveNoteWithTags("First Note", noteBook1, "tag1", "tag2");
+        NoteEntity note2 = saveNoteWithTags("Second Note", noteBook1, "tag1");
+        saveNoteWithTags("third Note", noteBook1, "tag3");
+        saveNoteWithTags("fourth Note", noteBook2, "tag1", "tag2");
+
+        int tag1 = tagRepository.findByValue("tag1").orElseThrow().getId();
+        int tag2 = tagRepository.findByValue("tag2").orElseThrow().getId();
+        assertEquals(3, tagRepository.count());
+
+        List<NoteEntity> anyTagNotes = noteRepository.findAllWithAnyTag(noteBook1.getId(), Set.of(tag1, tag2));
+        assertEquals(Set.of(note1.getId(), note2.getId()),
+                anyTagNotes.stream().map(NoteEntity::getId).collect(Collectors.toSet()));
+
+        List<NoteEntity> allTagsNotes = noteRepository.findAllWithAllTags(noteBook1.getId(), Set.of(tag1, tag2), 2);
+        assertEquals(1, allTagsNotes.size());
+        assertEquals(note1.getId(), allTagsNotes.get(0).getId());
+        assertEquals(2, allTagsNotes.get(0).getTags().size());
+    }
+
+    @Test
+    public void countNotesAndTagsTest() {
+        saveNoteWithTags("First Note", noteBook1, "tag1", "tag2");
+        saveNoteWithTags("Second Note", noteBook1, "tag2");
+        saveNoteWithTags("third Note", noteBook1);
+        saveNoteWithTags("fourth Note", noteBook2, "tag1");
+        noteRepository.flush();
+
+        assertEquals(3, noteRepository.countByNotebookId(noteBook1.getId()));
+        assertEquals(List.of(new TagCountDto("tag2", 2), new TagCountDto("tag1", 1)),
+                tagRepository.findTopTags(noteBook1.getId(), PageRequest.of(0, 10)));
+        assertEquals(List.of(new TagCountDto("tag1", 2)), tagRepository.findTopTags(PageRequest.of(0, 1)));
+    }
+
+    @Test
+    public void findChangedAfterTest() {
+        NoteEntity note1 = saveNoteWithTags("First Note", noteBook1);
+        NoteEntity note2 = saveNoteWithTags("Second Note", noteBook2);
+        noteRepository.flush();
+        Date created = note1.getChangedAt();
+        assertEquals(List.of(note1.getId(), note2.getId()), noteRepository.findChangedAfter(created, 0, PageRequest.of(0, 10))
+                .stream().map(NoteChange::getId).collect(Collectors.toList()));
+
+        note1.setTitle("updated");
+        noteRepository.flush();
+        List<NoteChange> changes = noteRepository.findChangedAfter(note2.getChangedAt(), note2.getId(), PageRequest.of(0, 10));
+        assertEquals(1, changes.size());
+        assertEquals(note1.getId(), changes.get(0).getId());
+        assertTrue(noteRepository.findChangedAfter(changes.get(0).getChangedAt(), note1.getId(), PageRequest.of(0, 10)).isEmpty());
+
+        NoteTombstoneEntity tombstone = noteTombstoneRepository.save(new NoteTombstoneEntity(note2.getId(), noteBook2.getId(), new Date()));
+        assertEquals(List.of(tombstone), noteTombstoneRepository.findDeletedAfter(created, 0, PageRequest.of(0, 10)));
+        assertTrue(noteTombstoneRepository.findDeletedAfter(tombstone.getDeletedAt(), tombstone.getId(), PageRequest.of(0, 10)).isEmpty());
+    }
+
+    @Test
+    public void deleteDeletedBeforeTest() {
+        NoteTombstoneEntity expired = noteTombstoneRepository.save(new NoteTombstoneEntity(1, noteBook1.getId(), new Date(1000)));
+        NoteTombstoneEntity kept = noteTombstoneRepository.save(new NoteTombstoneEntity(2, noteBook1.getId(), new Date(3000)));
+        noteTombstoneRepository.flush();
+
+        assertEquals(1, noteTombstoneRepository.deleteDeletedBefore(new Date(2000)));
+        assertEquals(List.of(kept), noteTombstoneRepository.findDeletedAfter(new Date(0), 0, PageRequest.of(0, 10)));
+        assertFalse(noteTombstoneRepository.existsById(expired.getId()));
+    }
+
+    private NoteEntity saveNoteWithTags(String title, NotebookEntity notebook, String... tags) {
+        NoteEntity note = new NoteEntity(title, "some random text", notebook, new Date(), new Date());
+        for (String tag : tags)
+            note.addTag(tagRepository.findByValue(tag).orElseGet(() -> tagRepository.save(new TagEntity(tag))));
+        return noteRepository.save(note);
+    }
+
+    @Test
+    public void removedTagKeptInDictionaryTest() {
+        NoteEntity note = saveNoteWithTags("First Note", noteBook1, "tag1", "tag2");
+        saveNoteWithTags("Second Note", noteBook1, "tag1");
+        noteRepository.flush();
+
+        note.removeTags(Set.of("tag1"));
+        noteRepository.flush();
+
+        int tag1 = tagRepository.findByValue("tag1").orElseThrow().getId();
+        assertEquals(1, noteRepository.findAllWithAnyTag(noteBook1.getId(), Set.of(tag1)).size());
+        assertEquals(List.of("tag2"), noteRepository.findAllWithTagsByIdIn(List.of(note.getId())).get(0).getTags()
+                .stream().map(TagEntity::getValue).collect(Collectors.toList()));
+
+        note.deleteEntity();
+        noteRepository.delete(note);
+        noteRepository.flush();
+        assertTrue(noteRepository.findAllWithAnyTag(noteBook1.getId(), Set.of(tagRepository.findByValue("tag2")
+                .orElseThrow().getId())).isEmpty());
+        assertEquals(2, tagRepository.count());
+    }
 }
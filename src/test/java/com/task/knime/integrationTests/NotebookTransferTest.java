@@ -0,0 +1,179 @@
+package com.task.knime.integrationTests;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.cache.TagIndex;
+import com.task.knime.dto.ImportSummaryDto;
+import com.task.knime.events.ChangeEventBus;
+import com.task.knime.exception.IllegalFieldException;
+import com.task.knime.model.NoteEntity;
+import com.task.knime.model.NotebookEntity;
+import com.task.knime.repository.NoteRepository;
+import com.task.knime.repository.NotebookRepository;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.search.NoteSearchIndex;
+import com.task.knime.service.NotebookTransferService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * import runs its own batch transactions, so tests are not run inside test transaction
+ */
+@DataJpaTest
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class NotebookTransferTest {
+
+    @Autowired
+    NotebookRepository notebookRepository;
+
+    @Autowired
+    NoteRepository noteRepository;
+
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    EntityManager entityManager;
+
+    NotebookTransferService transferService = new NotebookTransferService();
+
+    TagIndex tagIndex = Mockito.mock(TagIndex.class);
+
+    NoteSearchIndex noteSearchIndex = Mockito.mock(NoteSearchIndex.class);
+
+    ChangeEventBus changeEventBus = Mockito.mock(ChangeEventBus.class);
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    TagDictionary tagDictionary = new TagDictionary();
+
+    @BeforeEach
+    public void before() {
+        ReflectionTestUtils.setField(tagDictionary, "tagRepository", tagRepository);
+        ReflectionTestUtils.setField(tagDictionary, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(tagDictionary, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(tagDictionary, "tagSizeCache", 100);
+        ReflectionTestUtils.invokeMethod(tagDictionary, "configure");
+        ReflectionTestUtils.setField(transferService, "notebookRepository", notebookRepository);
+        ReflectionTestUtils.setField(transferService, "noteRepository", noteRepository);
+        ReflectionTestUtils.setField(transferService, "tagIndex", tagIndex);
+        ReflectionTestUtils.setField(transferService, "tagDictionary", tagDictionary);
+        ReflectionTestUtils.setField(transferService, "noteSearchIndex", noteSearchIndex);
+        ReflectionTestUtils.setField(transferService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(transferService, "changeEventBus", changeEventBus);
+        ReflectionTestUtils.setField(transferService, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(transferService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(transferService, "entityManager", entityManager);
+        ReflectionTestUtils.setField(transferService, "importBatchSize", 7);
+        ReflectionTestUtils.setField(transferService, "writeTimeoutSeconds", 30);
+        ReflectionTestUtils.invokeMethod(transferService, "init");
+    }
+
+    @AfterEach
+    public void after() {
+        notebookRepository.deleteAll();
+        tagRepository.deleteAll();
+    }
+
+    @Test
+    public void exportedNotebooksImportedInBatchesTest() throws Exception {
+        createNotebookWithTaggedNotes("first", 20);
+        notebookRepository.save(new NotebookEntity("empty"));
+        createNotebookWithTaggedNotes("third", 3);
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            try {
+                transferService.exportNotebooks(exported);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ImportSummaryDto summary = transferService.importNotebooks(new ByteArrayInputStream(exported.toByteArray()));
+
+        assertEquals(3, summary.getNotebooks());
+        assertEquals(23, summary.getNotes());
+        assertEquals(23, meterRegistry.get("transfer.import.notes").counter().count());
+        List<NotebookEntity> notebooks = notebookRepository.findAll();
+        notebooks.sort(Comparator.comparing(NotebookEntity::getId));
+        assertEquals(6, notebooks.size());
+        assertEquals(46, noteRepository.count());
+        assertEquals(2, tagRepository.count());
+        assertEquals("first", notebooks.get(3).getName());
+        NotebookEntity imported = notebookRepository.findWithNotesAndTagsById(notebooks.get(3).getId()).orElseThrow();
+        assertEquals(20, imported.getNotes().size());
+        imported.getNotes().forEach(note -> assertEquals(2, note.getTags().size()));
+        assertTrue(noteRepository.findIdsByNotebookId(notebooks.get(4).getId()).isEmpty());
+        assertEquals(3, noteRepository.findIdsByNotebookId(notebooks.get(5).getId()).size());
+
+        verify(tagIndex, times(23)).addNoteTags(anyInt(), anyInt(), anyCollection());
+        // 23 notes in batches of 7
+        verify(noteSearchIndex, times(4)).indexAll(anyCollection());
+    }
+
+    @Test
+    public void malformedImportTest() {
+        String noName = "{\"notes\":[{\"title\":\"title\",\"body\":\"body\"}]}\n";
+        assertThrows(IllegalFieldException.class, () -> transferService.importNotebooks(
+                new ByteArrayInputStream(noName.getBytes(StandardCharsets.UTF_8))));
+
+        String noBody = "{\"name\":\"notebook\",\"notes\":[{\"title\":\"title\"}]}\n";
+        assertThrows(IllegalFieldException.class, () -> transferService.importNotebooks(
+                new ByteArrayInputStream(noBody.getBytes(StandardCharsets.UTF_8))));
+
+        String truncated = "{\"name\":\"notebook\",\"notes\":[{\"title\":";
+        assertThrows(IllegalFieldException.class, () -> transferService.importNotebooks(
+                new ByteArrayInputStream(truncated.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(0, notebookRepository.count());
+    }
+
+    private void createNotebookWithTaggedNotes(String name, int notesCount) {
+        NotebookEntity notebook = notebookRepository.save(new NotebookEntity(name));
+        for (int i = 0; i < notesCount; i++) {
+            NoteEntity note = new NoteEntity("Note " + i, "some random text", notebook, new Date(), new Date());
+            note.addTags(tagDictionary.intern(List.of("tag1", "tag2")).values());
+            noteRepository.save(note);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.task.knime.integrationTests;
+
+import com.task.knime.cache.TagDictionary;
+import com.task.knime.dto.NoteDto;
+import com.task.knime.model.TagEntity;
+import com.task.knime.repository.TagRepository;
+import com.task.knime.service.NoteBookService;
+import com.task.knime.service.NoteService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * concurrent note writes with new tags on connection pool smaller than the number of writers.
+ * every write adds tags that are not in the dictionary yet, some of them shared with the other writers
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:tags;DB_CLOSE_DELAY=-1",
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.connection-timeout=2000",
+        "logging.level.org.hibernate.SQL=WARN",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN"})
+public class TagDictionaryConcurrencyTest {
+
+    static final int WRITERS = 8;
+    static final int NOTES_PER_WRITER = 10;
+
+    @Autowired
+    NoteService noteService;
+
+    @Autowired
+    NoteBookService noteBookService;
+
+    @Autowired
+    TagDictionary tagDictionary;
+
+    @Autowired
+    TagRepository tagRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    public void concurrentWritesWithNewTagsDoNotExhaustPoolTest() throws Exception {
+        int notebookId = noteBookService.createNotebook("tags").getId();
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<List<NoteDto>>> written = new ArrayList<>();
+            for (int writer = 0; writer < WRITERS; writer++) {
+                int writerId = writer;
+                written.add(writers.submit(() -> IntStream.range(0, NOTES_PER_WRITER).mapToObj(note ->
+                        noteService.createNote(NoteDto.builder().title("note").body("body").NotebookId(notebookId)
+                                .tags(List.of("shared " + note, "writer " + writerId + " " + note)).build()))
+                        .collect(Collectors.toList())));
+            }
+            for (Future<List<NoteDto>> notes : written)
+                assertEquals(NOTES_PER_WRITER, notes.get(30, TimeUnit.SECONDS).size());
+        } finally {
+            writers.shutdownNow();
+        }
+
+        Set<String> shared = IntStream.range(0, NOTES_PER_WRITER).mapToObj(note -> "shared " + note)
+                .collect(Collectors.toSet());
+        List<TagEntity> sharedTags = tagRepository.findAllByValueIn(shared);
+        assertEquals(NOTES_PER_WRITER, sharedTags.size());
+        assertEquals(shared, sharedTags.stream().map(TagEntity::getValue).collect(Collectors.toSet()));
+        List<NoteDto> notes = noteBookService.getNotebook(notebookId).getNotes();
+        assertEquals(WRITERS * NOTES_PER_WRITER, notes.size());
+        notes.forEach(note -> assertEquals(2, note.getTags().size()));
+    }
+
+    @Test
+    public void internInsideTransactionRejectedTest() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        assertThrows(IllegalStateException.class, () -> transactionTemplate.executeWithoutResult(status ->
+                tagDictionary.intern(List.of("inside"))));
+    }
+}